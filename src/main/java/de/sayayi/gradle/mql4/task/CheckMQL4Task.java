@@ -0,0 +1,129 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+
+
+/**
+ * <p>
+ *   Checks the syntax of the selected MQL4 files using metaeditor's syntax check mode ({@code /s}), without producing
+ *   ex4 files. Wine setup and parallelism are the same as for {@code compileMql4}, but the task keeps its own
+ *   incremental state in {@code build/mql4/checkMql4}. The selection includes the files of all source sets sharing
+ *   the MQL4 directory of {@code compileMql4}. Files are checked in a staging copy, so the source tree is not touched.
+ * </p>
+ *
+ * <p>
+ *   The diagnostics of all checked files are collected in {@code report.txt} using the common
+ *   {@code file:line:column: severity code: message} format.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public class CheckMQL4Task extends CompileMQL4Task
+{
+  static final String REPORT_FILE = "report.txt";
+
+
+  @Override
+  protected boolean isSyntaxCheck() {
+    return true;
+  }
+
+
+  @Override
+  @Internal
+  public File getOutputDir() {
+    return null;
+  }
+
+
+  @Override
+  @Internal
+  public FileCollection getEx4Files() {
+    return getProject().files();
+  }
+
+
+  @OutputFile
+  public File getReportFile() {
+    return new File(getStateDir(), REPORT_FILE);
+  }
+
+
+  @Override
+  protected void afterCompile(Map<String,Mql4Dependency> mql4Files)
+  {
+    final File diagnosticsDir = new File(getStateDir(), DIAGNOSTICS_DIR);
+    final File reportFile = getReportFile();
+    final List<String> missingLogs = new ArrayList<>();
+    int errors = 0;
+    int warnings = 0;
+
+    try {
+      Files.createDirectories(reportFile.getParentFile().toPath());
+
+      try(Writer report = Files.newBufferedWriter(reportFile.toPath(), UTF_8)) {
+        // files which haven't changed since the last check keep their diagnostics
+        for(final String relativeMq4Path: new TreeSet<>(mql4Files.keySet()))
+        {
+          final File logFile = new File(diagnosticsDir, replaceExtension(relativeMq4Path, "log"));
+          if (!logFile.isFile())
+          {
+            missingLogs.add(relativeMq4Path);
+            continue;
+          }
+
+          final Mql4Diagnostics diagnostics =
+              Mql4Diagnostics.parse(relativeMq4Path, Files.readAllLines(logFile.toPath(), UTF_8));
+
+          for(final Mql4Diagnostic diagnostic: diagnostics.getDiagnostics())
+            report.append(diagnostic.format()).append('\n');
+
+          errors += diagnostics.getErrors();
+          warnings += diagnostics.getWarnings();
+        }
+
+        for(final String relativeMq4Path: missingLogs)
+          report.append(relativeMq4Path).append(": no diagnostics log\n");
+
+        report.append(String.format("%d file(s) checked: %d error(s), %d warning(s), %d without diagnostics log\n",
+            mql4Files.size(), errors, warnings, missingLogs.size()));
+      }
+    } catch(final IOException ex) {
+      getLogger().warn("failed to write report {}", reportFile, ex);
+    }
+
+    if (!missingLogs.isEmpty())
+      getLogger().warn("mql4 syntax check: no diagnostics log for {} file(s): {}", missingLogs.size(), missingLogs);
+
+    getLogger().lifecycle("mql4 syntax check: {} file(s), {} error(s), {} warning(s); see {}",
+        mql4Files.size(), errors, warnings, reportFile);
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+
+/**
+ * SHA-256 checksums of files, hex encoded.
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Checksums
+{
+  private Checksums() {
+  }
+
+
+  /**
+   * Returns a new SHA-256 message digest.
+   */
+  static MessageDigest newDigest()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch(final NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+
+  /**
+   * Returns the lower case hex representation of the given bytes.
+   */
+  static String toHex(byte[] bytes)
+  {
+    final StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+    for(final byte b: bytes)
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+
+    return hex.toString();
+  }
+
+
+  /**
+   * Returns the checksum of the given file.
+   *
+   * @param file  file
+   *
+   * @return  checksum (SHA-256, hex encoded)
+   *
+   * @throws IOException  if the file could not be read
+   */
+  public static String checksum(File file) throws IOException
+  {
+    try(InputStream in = new FileInputStream(file)) {
+      final MessageDigest digest = newDigest();
+      final byte[] buffer = new byte[65536];
+      int n;
+
+      while((n = in.read(buffer)) > 0)
+        digest.update(buffer, 0, n);
+
+      return toHex(digest.digest());
+    }
+  }
+
+
+  /**
+   * Returns the checksum of the given file. The checksum is taken from the cache if the size and modification time of
+   * the file haven't changed since it was calculated.
+   *
+   * @param file   file
+   * @param cache  absolute path -> {@code <size>:<mtime>:<checksum>}; must be thread safe if shared between threads
+   *
+   * @return  checksum (SHA-256, hex encoded)
+   *
+   * @throws IOException  if the file could not be read
+   */
+  public static String checksum(File file, Map<String,String> cache) throws IOException
+  {
+    final String path = file.getAbsolutePath();
+    final String stamp = getStamp(file);
+    final String cachedChecksum = cache.get(path);
+
+    if (cachedChecksum != null && cachedChecksum.startsWith(stamp))
+      return cachedChecksum.substring(stamp.length());
+
+    final String checksum = checksum(file);
+    cache.put(path, stamp + checksum);
+
+    return checksum;
+  }
+
+
+  /**
+   * Returns the checksums of the given files. Checksums of files with unchanged size and modification time are taken
+   * from the checksums file, which is updated afterwards.
+   *
+   * @param files          key -> file
+   * @param checksumsFile  file containing the checksums of the previous call
+   *
+   * @return  key -> checksum, sorted by key
+   *
+   * @throws IOException  if a file could not be read
+   */
+  public static Map<String,String> checksums(Map<String,File> files, File checksumsFile) throws IOException
+  {
+    final Map<String,String> previousChecksums = StateFile.load(checksumsFile);
+    final Map<String,String> stamps = new TreeMap<>();
+    final Map<String,String> checksums = new TreeMap<>();
+
+    for(final Entry<String,File> entry: files.entrySet())
+    {
+      final File file = entry.getValue();
+      final String stamp = getStamp(file);
+      final String previousChecksum = previousChecksums.get(entry.getKey());
+
+      final String checksum = previousChecksum != null && previousChecksum.startsWith(stamp)
+          ? previousChecksum.substring(stamp.length()) : checksum(file);
+
+      stamps.put(entry.getKey(), stamp + checksum);
+      checksums.put(entry.getKey(), checksum);
+    }
+
+    StateFile.store(checksumsFile, stamps);
+
+    return checksums;
+  }
+
+
+  /**
+   * Returns the size and modification time of the given file, in the form {@code <size>:<mtime>:}.
+   */
+  static String getStamp(File file) {
+    return file.length() + ":" + file.lastModified() + ":";
+  }
+}
@@ -23,9 +23,11 @@ import java.util.List;
 import java.util.regex.Pattern;
 
 import org.gradle.api.Action;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 
+import de.sayayi.gradle.mql4.task.Mql4Preflight.Severity;
 import lombok.Getter;
 import lombok.ToString;
 
@@ -50,27 +52,93 @@ public class CompileMQL4Extension
   @Getter
   private final List<String> excludes = new ArrayList<>(Arrays.asList("**/*.mqh"));
 
+  @Getter
+  private final List<File> includeDirs = new ArrayList<>();
+
   @Getter
   private final Wine wine;
 
+  @Getter
+  private final NamedDomainObjectContainer<Mql4SourceSet> sourceSets;
+
   @Getter
   private String metaeditor;
 
   @Getter
   private File mql4Dir = new File("MQL4");
 
+  @Getter
+  private File outputDir;
+
+  /** fast (eg. tmpfs) directory receiving a mirror of the compiled files and their dependencies */
+  @Getter
+  private File mirrorDir;
+
   @Getter
   private boolean verbose;
 
+  @Getter
+  private int parallelCompiles = 1;
+
+  /** {@code true} if the number of parallel compiles is tuned at runtime ({@code parallelCompiles = 'auto'}) */
+  @Getter
+  private boolean autoParallelCompiles;
+
+  @Getter
+  private int minParallelCompiles = 1;
+
+  @Getter
+  private int maxParallelCompiles = Runtime.getRuntime().availableProcessors();
+
+  /** memory budget for all parallel compiles in megabytes; 0 = no budget */
+  @Getter
+  private int compileMemoryBudget;
+
+  /** estimated memory used by a single compile in megabytes */
+  @Getter
+  private int compileMemoryEstimate = 256;
+
+  @Getter
+  private String compileAgent;
+
+  /** maximum time in seconds to wait for the compile agent's response; 0 = wait forever */
+  @Getter
+  private int compileAgentTimeout = Mql4RemoteCompiler.DEFAULT_READ_TIMEOUT;
+
+  @Getter
+  private Mql4Shard shard;
+
+  @Getter
+  private File shardDurations;
+
+  @Getter
+  private boolean normalizedChangeDetection;
+
+  @Getter
+  private Severity preflightSeverity = Severity.ERROR;
+
+  @Getter
+  private Severity includeCycleSeverity = Severity.WARN;
+
 
   public CompileMQL4Extension(Project project, Configuration mql4Configuration)
   {
     wine = new Wine(project);
+    sourceSets = project.container(Mql4SourceSet.class,
+        name -> project.getObjects().newInstance(Mql4SourceSet.class, name, project));
 
     this.mql4Configuration = mql4Configuration;
 
     // if metaeditor is set in the system properties, copy the location from there.
     setMetaeditor(System.getProperty("mql4.metaeditor"));
+
+    // if a compile agent is set in the system properties, use it
+    setCompileAgent(System.getProperty("mql4.compileAgent"));
+
+    // select a shard, eg. -Pmql4.shard=1/4
+    final Object shard = project.findProperty("mql4.shard");
+    if (shard != null)
+      setShard(shard.toString());
   }
 
 
@@ -79,6 +147,30 @@ public class CompileMQL4Extension
   }
 
 
+  public void setCompileAgent(String compileAgent) {
+    this.compileAgent = (compileAgent == null || compileAgent.trim().isEmpty()) ? null : compileAgent.trim();
+  }
+
+
+  public void setCompileAgentTimeout(int compileAgentTimeout)
+  {
+    if (compileAgentTimeout < 0)
+      throw new IllegalArgumentException("compileAgentTimeout must not be negative");
+
+    this.compileAgentTimeout = compileAgentTimeout;
+  }
+
+
+  public void setShard(String shard) {
+    this.shard = Mql4Shard.parse(shard);
+  }
+
+
+  public void setShardDurations(File shardDurations) {
+    this.shardDurations = shardDurations;
+  }
+
+
   public void setMql4Dir(String mql4Dir) {
     this.mql4Dir = new File(mql4Dir);
   }
@@ -89,6 +181,26 @@ public class CompileMQL4Extension
   }
 
 
+  public void setOutputDir(String outputDir) {
+    this.outputDir = new File(outputDir);
+  }
+
+
+  public void setOutputDir(File outputDir) {
+    this.outputDir = outputDir;
+  }
+
+
+  public void setMirrorDir(String mirrorDir) {
+    this.mirrorDir = new File(mirrorDir);
+  }
+
+
+  public void setMirrorDir(File mirrorDir) {
+    this.mirrorDir = mirrorDir;
+  }
+
+
   public void setInclude(String include) {
     includes.add(include);
   }
@@ -127,11 +239,28 @@ public class CompileMQL4Extension
   }
 
 
+  public void setIncludeDir(File includeDir) {
+    includeDirs.add(includeDir);
+  }
+
+
+  public void setIncludeDirs(Collection<File> includeDirs)
+  {
+    this.includeDirs.clear();
+    this.includeDirs.addAll(includeDirs);
+  }
+
+
   public void wine(Action<? super Wine> action) {
     action.execute(wine);
   }
 
 
+  public void sourceSets(Action<? super NamedDomainObjectContainer<Mql4SourceSet>> action) {
+    action.execute(sourceSets);
+  }
+
+
   public void setVerbose(boolean verbose) {
     this.verbose = verbose;
   }
@@ -140,4 +269,103 @@ public class CompileMQL4Extension
   public void setVerbose(String verbose) {
     this.verbose = Boolean.parseBoolean(verbose);
   }
+
+
+  public void setNormalizedChangeDetection(boolean normalizedChangeDetection) {
+    this.normalizedChangeDetection = normalizedChangeDetection;
+  }
+
+
+  public void setNormalizedChangeDetection(String normalizedChangeDetection) {
+    this.normalizedChangeDetection = Boolean.parseBoolean(normalizedChangeDetection);
+  }
+
+
+  public void setPreflightSeverity(Severity preflightSeverity) {
+    this.preflightSeverity = preflightSeverity;
+  }
+
+
+  public void setPreflightSeverity(String preflightSeverity) {
+    this.preflightSeverity = Severity.parse(preflightSeverity);
+  }
+
+
+  public void setIncludeCycleSeverity(Severity includeCycleSeverity) {
+    this.includeCycleSeverity = includeCycleSeverity;
+  }
+
+
+  public void setIncludeCycleSeverity(String includeCycleSeverity) {
+    this.includeCycleSeverity = Severity.parse(includeCycleSeverity);
+  }
+
+
+  public void setParallelCompiles(int parallelCompiles)
+  {
+    if (parallelCompiles < 1)
+      throw new IllegalArgumentException("parallelCompiles must be at least 1");
+
+    this.parallelCompiles = parallelCompiles;
+    autoParallelCompiles = false;
+  }
+
+
+  public void setParallelCompiles(String parallelCompiles)
+  {
+    if ("auto".equalsIgnoreCase(parallelCompiles.trim()))
+      autoParallelCompiles = true;
+    else
+      setParallelCompiles(Integer.parseInt(parallelCompiles.trim()));
+  }
+
+
+  public void setMinParallelCompiles(int minParallelCompiles)
+  {
+    if (minParallelCompiles < 1)
+      throw new IllegalArgumentException("minParallelCompiles must be at least 1");
+
+    this.minParallelCompiles = minParallelCompiles;
+  }
+
+
+  public void setMaxParallelCompiles(int maxParallelCompiles)
+  {
+    if (maxParallelCompiles < 1)
+      throw new IllegalArgumentException("maxParallelCompiles must be at least 1");
+
+    this.maxParallelCompiles = maxParallelCompiles;
+  }
+
+
+  public void setCompileMemoryBudget(int compileMemoryBudget)
+  {
+    if (compileMemoryBudget < 0)
+      throw new IllegalArgumentException("compileMemoryBudget must not be negative");
+
+    this.compileMemoryBudget = compileMemoryBudget;
+  }
+
+
+  public void setCompileMemoryEstimate(int compileMemoryEstimate)
+  {
+    if (compileMemoryEstimate < 1)
+      throw new IllegalArgumentException("compileMemoryEstimate must be at least 1");
+
+    this.compileMemoryEstimate = compileMemoryEstimate;
+  }
+
+
+  /**
+   * Returns the controller limiting the number of files compiled in parallel by a single task.
+   *
+   * @return  controller, never {@code null}
+   */
+  Mql4ParallelismController createParallelismController()
+  {
+    return autoParallelCompiles
+        ? Mql4ParallelismController.auto(minParallelCompiles, maxParallelCompiles,
+              compileMemoryBudget * 1024L * 1024L, compileMemoryEstimate * 1024L * 1024L)
+        : Mql4ParallelismController.fixed(parallelCompiles);
+  }
 }
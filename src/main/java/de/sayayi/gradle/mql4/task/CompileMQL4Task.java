@@ -17,8 +17,12 @@ package de.sayayi.gradle.mql4.task;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -26,13 +30,25 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.net.URL;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -43,14 +59,20 @@ import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.DependencySet;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileVisitDetails;
 import org.gradle.api.logging.LogLevel;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.process.ExecResult;
 import org.gradle.process.internal.ExecAction;
 import org.gradle.process.internal.ExecActionFactory;
@@ -65,9 +87,40 @@ import lombok.Setter;
  */
 public class CompileMQL4Task extends DefaultTask
 {
+  static final String DURATIONS_FILE = "durations.properties";
+  static final String DIAGNOSTICS_DIR = "logs";
+  static final String COMPILER_OUTPUT_DIR = "output";
+  static final String SHARD_EX4_DIR = "ex4";
+  static final String LIBRARY_CHECKSUMS_FILE = "libraries.properties";
+  static final String FINGERPRINTS_FILE = "fingerprints.properties";
+  static final String STAGING_DIR = "staging";
+  static final String FAILURES_FILE = "failures.properties";
+  static final String CHECKPOINTS_FILE = "checkpoints.properties";
+  static final String DIRECTIVES_FILE = "directives.bin";
+
   @Setter
   private CompileMQL4Extension extension;
 
+  /** source set compiled by this task or {@code null} for the default source (configured in the extension) */
+  @Setter
+  private Mql4SourceSet sourceSet;
+
+  /** subset of files to compile, relative to the MQL4 directory (paths or globs); set by option {@code --file} */
+  private final List<String> subsetFiles = new ArrayList<>();
+
+  /** subset of directories to compile, relative to the MQL4 directory; set by option {@code --dir} */
+  private final List<String> subsetDirs = new ArrayList<>();
+
+  /** git ref; only compile files affected by changes since this ref. set by option {@code --changed-since} */
+  private String changedSince;
+
+  private Set<Path> changedFiles;
+  private Mql4DirectiveCache directiveCache;
+
+  /** mirror used by the current compilation or {@code null} */
+  private Mql4Mirror mirror;
+  private boolean metaeditorResolved;
+
 
   @Inject
   protected ExecActionFactory getExecActionFactory() {
@@ -75,20 +128,188 @@ public class CompileMQL4Task extends DefaultTask
   }
 
 
+  @Inject
+  protected ProgressLoggerFactory getProgressLoggerFactory() {
+    throw new UnsupportedOperationException();
+  }
+
+
   @Internal
   public String getMetaeditor() {
     return extension.getMetaeditor();
   }
 
 
+  @Internal
+  public File getMql4Dir()
+  {
+    return sourceSet != null && sourceSet.getMql4Dir() != null ? sourceSet.getMql4Dir() : extension.getMql4Dir();
+  }
+
+
+  @Internal
+  public List<String> getIncludes() {
+    return sourceSet != null ? sourceSet.getIncludes() : extension.getIncludes();
+  }
+
+
+  @Internal
+  public List<String> getExcludes() {
+    return sourceSet != null ? sourceSet.getExcludes() : extension.getExcludes();
+  }
+
+
+  @Internal
+  public List<File> getIncludeDirs() {
+    return extension.getIncludeDirs();
+  }
+
+
+  @Option(option = "file", description = "Only compiles the given files and files including them (path or glob).")
+  public void setSubsetFiles(List<String> subsetFiles)
+  {
+    this.subsetFiles.clear();
+    this.subsetFiles.addAll(subsetFiles);
+  }
+
+
+  @Internal
+  public List<String> getSubsetFiles() {
+    return subsetFiles;
+  }
+
+
+  @Option(option = "dir", description = "Only compiles files located in or including files from the given directory.")
+  public void setSubsetDirs(List<String> subsetDirs)
+  {
+    this.subsetDirs.clear();
+    this.subsetDirs.addAll(subsetDirs);
+  }
+
+
+  @Internal
+  public List<String> getSubsetDirs() {
+    return subsetDirs;
+  }
+
+
+  @Option(option = "changed-since", description = "Only compiles files affected by changes since the given git ref.")
+  public void setChangedSince(String changedSince)
+  {
+    this.changedSince = changedSince;
+    changedFiles = null;
+  }
+
+
+  @Internal
+  public String getChangedSince() {
+    return changedSince;
+  }
+
+
+  @Input
+  @Optional
+  public String getCompileAgent() {
+    return extension.getCompileAgent();
+  }
+
+
+  @Input
+  @Optional
+  public String getMetaeditorChecksum()
+  {
+    // compiling on an agent; the agent's metaeditor is unknown
+    if (extension.getCompileAgent() != null)
+      return null;
+
+    resolveMetaeditor();
+
+    final String metaeditor = extension.getMetaeditor();
+    return metaeditor == null ? null : MetaeditorCache.getMetaeditorChecksum(new File(metaeditor));
+  }
+
+
+  @Input
+  @Optional
+  public String getShard()
+  {
+    final Mql4Shard shard = extension.getShard();
+    return shard == null ? null : shard.toString();
+  }
+
+
+  /**
+   * Returns the directory containing the compile state and diagnostics for this task.
+   */
+  @Internal
+  public File getStateDir() {
+    return new File(getProject().getBuildDir(), "mql4/" + getName());
+  }
+
+
+  /**
+   * Returns the directory mirroring the MQL4 directory of this task or {@code null} if no mirror is configured. The
+   * directory name contains the project and task name and is unique per build directory, so several checkouts can
+   * share the same mirror directory.
+   */
+  @Internal
+  public File getMirrorDir()
+  {
+    final File mirrorDir = extension.getMirrorDir();
+
+    return mirrorDir == null ? null : new File(mirrorDir, getProject().getName() + '-' + getName() + '-' +
+        Integer.toHexString(getStateDir().getAbsolutePath().hashCode()));
+  }
+
+
+  /**
+   * Returns the directory receiving the compiled ex4 files or {@code null} if ex4 files are written next to their
+   * source files.
+   */
+  @Internal
+  public File getOutputDir()
+  {
+    final File outputDir = extension.getOutputDir();
+
+    // source sets share the output directory; keep their files apart
+    return outputDir == null || sourceSet == null ? outputDir : new File(outputDir, sourceSet.getName());
+  }
+
+
+  /**
+   * Returns the location of the compiled ex4 file for the given mq4 file.
+   *
+   * @param relativeMq4Path  path of the mq4 file, relative to the MQL4 directory
+   *
+   * @return  ex4 file, either next to the mq4 file or in the output directory
+   */
+  protected File getEx4File(String relativeMq4Path)
+  {
+    final File outputDir = getOutputDir();
+
+    return new File(outputDir == null ? getMql4Dir().getAbsoluteFile() : outputDir,
+        replaceExtension(relativeMq4Path, "ex4"));
+  }
+
+
   @SkipWhenEmpty
   @InputFiles
   public FileCollection getMq4Files()
   {
-    // return a set of all selected files (mq4) and their dependencies (mqh)
-    return getProject().files(getInputFilesWithDependency().values()
+    final Map<String,Mql4Dependency> mql4Files = getInputFilesWithDependency();
+
+    // ex4 files compiled in-tree by this task; they may be imported by other files
+    final Set<File> ex4Files = mql4Files.values()
+        .stream()
+        .map(dep -> replaceExtension(dep.getFile(), "ex4"))
+        .collect(Collectors.toSet());
+
+    // return a set of all selected files (mq4) and their dependencies (mqh, resources and imported libraries).
+    // imported libraries compiled by this task are outputs and must not be registered as inputs as well.
+    return getProject().files(mql4Files.values()
         .stream()
         .flatMap(Mql4Dependency::streamDependenciesWithSelf)
+        .filter(f -> !ex4Files.contains(f))
         .collect(Collectors.toSet()));
   }
 
@@ -97,105 +318,655 @@ public class CompileMQL4Task extends DefaultTask
   public FileCollection getEx4Files()
   {
     // return a set of all expected files (ex4)
-    return getProject().files(getInputFilesWithDependency().values()
+    return getProject().files(getEx4Files(getInputFilesWithDependency()));
+  }
+
+
+  private Set<File> getEx4Files(Map<String,Mql4Dependency> mql4Files)
+  {
+    return mql4Files.keySet()
         .stream()
-        .map(dep -> replaceExtension(dep.getFile(), "ex4"))
-        .collect(Collectors.toSet()));
+        .map(this::getEx4File)
+        .collect(Collectors.toSet());
   }
 
 
   @TaskAction
   public void compileMQL4(IncrementalTaskInputs inputs) throws IOException
   {
-    createWinePrefixParentDirectory();
-    resolveMetaeditor();
-
-    final File mql4dir = extension.getMql4Dir();
+    final File mql4dir = getMql4Dir();
     if (!mql4dir.isDirectory())
       throw new GradleException(mql4dir.getAbsolutePath() + " is not a directory");
 
     final Logger logger = getLogger();
+    final LogLevel level = extension.isVerbose() ? LogLevel.QUIET : LogLevel.DEBUG;
     final Map<String,Mql4Dependency> mql4Files = getInputFilesWithDependency();
     logger.debug("selected mql4 files: {}", mql4Files);
 
+    // fail fast, before resolving metaeditor or starting wine
+    new Mql4Preflight(mql4dir, mql4Files)
+        .report(logger, extension.getPreflightSeverity(), extension.getIncludeCycleSeverity());
+
+    if (extension.getCompileAgent() == null)
+      resolveMetaeditor();
+
+    final String mql4DirPath = mql4dir.getAbsolutePath();
+    final File fingerprintsFile = new File(getStateDir(), FINGERPRINTS_FILE);
+    final Map<String,String> fingerprints =
+        extension.isNormalizedChangeDetection() ? StateFile.load(fingerprintsFile) : null;
+
     inputs.outOfDate(change -> {
+      // a full rebuild compiles everything anyway, but still records the fingerprints
+      if (fingerprints != null && updateFingerprint(mql4DirPath, change.getFile(), fingerprints) &&
+          inputs.isIncremental())
+      {
+        logger.log(level, "{} has no relevant changes", makeRelative(mql4DirPath, change.getFile().getAbsolutePath()));
+        return;
+      }
+
+      // compiled files are deleted right before they're recompiled, unless a checkpoint proves them to be current
       mql4Files.values().forEach(dep -> dep.markDirty(change.getFile()));
-      replaceExtension(change.getFile(), "ex4").delete();
     });
 
     inputs.removed(change -> {
-      replaceExtension(change.getFile(), "ex4").delete();
+      if (fingerprints != null)
+        fingerprints.remove(makeRelative(mql4DirPath, change.getFile().getAbsolutePath()));
+
+      // files which are not part of the selected subset are not removed
+      if (isMq4File(change.getFile()) && !isSubset() && !isSyntaxCheck())
+        getEx4File(makeRelative(mql4DirPath, change.getFile().getAbsolutePath())).delete();
     });
 
-    final LogLevel level = extension.isVerbose() ? LogLevel.QUIET : LogLevel.DEBUG;
-    compileMQL4(logger, level, mql4Files, mql4dir, inputs.isIncremental());
+    try {
+      compileMQL4(logger, level, mql4Files, mql4dir, inputs.isIncremental());
+    } finally {
+      afterCompile(mql4Files);
+    }
+
+    // only record fingerprints after a successful compilation; otherwise the changes would be lost for the next run
+    if (fingerprints != null)
+      StateFile.store(fingerprintsFile, fingerprints);
+  }
+
+
+  /**
+   * Update the normalized fingerprint of a changed source file (mq4/mqh).
+   *
+   * @return  {@code true} if the fingerprint is unchanged, {@code false} if it has changed or the file is not a
+   *          source file
+   */
+  private boolean updateFingerprint(String mql4DirPath, File file, Map<String,String> fingerprints)
+  {
+    final String name = file.getName().toLowerCase();
+    if (!name.endsWith(".mq4") && !name.endsWith(".mqh"))
+      return false;
+
+    final String key = makeRelative(mql4DirPath, file.getAbsolutePath());
+
+    try {
+      final String fingerprint = Mql4Fingerprint.of(file);
+      return fingerprint.equals(fingerprints.put(key, fingerprint));
+    } catch(final IOException ex) {
+      getLogger().debug("failed to calculate fingerprint for {}", file, ex);
+      fingerprints.remove(key);
+      return false;
+    }
   }
 
 
   private void compileMQL4(Logger logger, LogLevel level, Map<String,Mql4Dependency> mql4Files, File mql4dir,
-      boolean incremental) throws IOException
+      boolean incremental)
   {
     final String mql4DirPath = mql4dir.getAbsolutePath();
-    File tmpBatch = null;
+    final Mql4ParallelismController parallelism = extension.createParallelismController();
+    final int parallelCompiles = parallelism.getMaxCompiles();
+    final Mql4BuildService buildService = Mql4BuildService.get(getProject());
+    final Wine wine = extension.getWine();
+    final boolean useWine = wine.isEnabled() && extension.getCompileAgent() == null;
+    final WinePrefixPool winePrefixPool = useWine && wine.isPooled() ? buildService.getWinePrefixPool() : null;
 
-    if (extension.getWine().isEnabled())
+    if (useWine)
     {
       logger.log(level, "prepare for wine environment");
-
-      tmpBatch = File.createTempFile("mql4c-", ".cmd", mql4dir);
-      tmpBatch.deleteOnExit();
-      logger.debug("created temporary batch file {}", tmpBatch);
+      buildService.prepareWine(getExecActionFactory(), wine, parallelCompiles);
     }
 
+    // the compile agent receives the files of each compile anyway
+    mirror = getMirrorDir() == null || extension.getCompileAgent() != null
+        ? null : new Mql4Mirror(getMirrorDir(), getMql4Dir(), extension.getIncludeDirs());
+
+    final Mql4CompileGraph compileGraph = new Mql4CompileGraph(mql4Files);
+    if (!compileGraph.getCyclic().isEmpty())
+      logger.warn("mql4 files {} import each other; compile order is undefined", compileGraph.getCyclic());
+
+    final File libraryChecksumsFile = new File(getStateDir(), LIBRARY_CHECKSUMS_FILE);
+    final Map<String,String> libraryChecksums = StateFile.load(libraryChecksumsFile);
+    final Set<String> changedLibraries = new HashSet<>();
+
+    // closure fingerprints of files which failed to compile; a full rebuild retries all of them, as the failure may
+    // have been caused by the environment (eg. wine) instead of the sources
+    final File failuresFile = new File(getStateDir(), FAILURES_FILE);
+    final Map<String,String> failures = new ConcurrentHashMap<>();
+    if (incremental)
+      failures.putAll(StateFile.load(failuresFile));
+    else
+      failuresFile.delete();
+    final String toolchain = getToolchain();
+
+    // checksums of the files in the closures; shared headers are read once per run
+    final Map<String,String> closureChecksums = new ConcurrentHashMap<>();
+
+    // closure fingerprints and ex4 checksums of files compiled successfully; appended after each compile, so they
+    // survive a failed or cancelled build. A full rebuild must not trust them.
+    final File checkpointsFile = new File(getStateDir(), CHECKPOINTS_FILE);
+    final Map<String,String> checkpoints = new ConcurrentHashMap<>();
+    if (incremental)
+      checkpoints.putAll(StateFile.load(checkpointsFile));
+    else
+      checkpointsFile.delete();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelCompiles);
+    final Map<String,String> durations = new ConcurrentHashMap<>();
+    final List<String> failedFiles = new ArrayList<>();
+
+    final ProgressLogger progressLogger = getProgressLoggerFactory().newOperation(CompileMQL4Task.class);
+    progressLogger.start("Compiling MQL4 files", "");
+
+    final Mql4CompileProgress progress = new Mql4CompileProgress(
+        StateFile.load(new File(getStateDir(), DURATIONS_FILE)), parallelCompiles, progressLogger::progress);
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+      if (!incremental || mql4File.getValue().isDirty())
+        progress.schedule(mql4File.getKey());
+
     try {
-      for(final Entry<String,Mql4Dependency> mql4FileEntry: mql4Files.entrySet())
+      // compile level by level; libraries must be compiled before the files importing them
+      for(final List<String> compileLevel: compileGraph.getLevels())
       {
-        if (!incremental || mql4FileEntry.getValue().isDirty())
+        final Map<String,Future<Boolean>> compilations = new LinkedHashMap<>();
+
+        for(final String key: compileLevel)
         {
-          logger.log(level, "compile {} (dependencies {})",
-              mql4FileEntry.getKey(),
-              mql4FileEntry.getValue().getDependencies()
-                           .stream()
-                           .map(f -> makeRelative(mql4DirPath, f.getAbsolutePath()))
-                           .collect(Collectors.toList()));
-
-          compileFile(mql4FileEntry, tmpBatch);
+          final Mql4Dependency dependency = mql4Files.get(key);
+
+          if (incremental && !dependency.isDirty())
+          {
+            final Set<String> changed = new TreeSet<>(compileGraph.getLibraries(key));
+            changed.retainAll(changedLibraries);
+
+            if (changed.isEmpty())
+            {
+              logger.log(level, "{} is up-to-date", replaceExtension(key, "ex4"));
+              continue;
+            }
+
+            logger.log(level, "{} imports changed libraries {}", key, changed);
+            checkpoints.remove(key);
+            progress.schedule(key);
+          }
+
+          compilations.put(key, executor.submit(() -> {
+            final String closureFingerprint = getClosureFingerprint(dependency, toolchain, closureChecksums);
+            if (closureFingerprint != null && closureFingerprint.equals(failures.get(key)) && reportFailure(key))
+            {
+              progress.finished(key, false, 0);
+              return false;
+            }
+
+            final String checkpoint = checkpoints.get(key);
+            if (checkpoint != null && checkpoint.equals(getCheckpoint(key, closureFingerprint)))
+            {
+              logger.log(level, "{} is up-to-date (checkpoint)", replaceExtension(key, "ex4"));
+              progress.finished(key, true, 0);
+              return true;
+            }
+
+            if (!isSyntaxCheck())
+              getEx4File(key).delete();
+
+            logger.log(level, "compile {} (dependencies {})",
+                key,
+                dependency.getDependencies()
+                          .stream()
+                          .map(f -> makeRelative(mql4DirPath, f.getAbsolutePath()))
+                          .collect(Collectors.toList()));
+
+            // each resource is released by its own finally block, so a thread interrupted while waiting for the
+            // next resource does not leak the ones it already holds. The wine prefix is acquired before the build
+            // wide compile slot, so no thread holds a compile slot while waiting for a prefix.
+            parallelism.acquire();
+            try {
+              final File winePrefix = winePrefixPool == null ? wine.getPrefix() : winePrefixPool.acquire();
+              try {
+                buildService.acquireCompileSlot();
+                try {
+                  final long start = System.currentTimeMillis();
+                  boolean success = false;
+                  progress.started(key);
+                  try {
+                    compileFile(new SimpleImmutableEntry<>(key, dependency), winePrefix);
+                    durations.put(key, Long.toString(System.currentTimeMillis() - start));
+                    failures.remove(key);
+                    success = true;
+
+                    final String compiledCheckpoint = getCheckpoint(key, closureFingerprint);
+                    if (compiledCheckpoint != null)
+                      StateFile.append(checkpointsFile, key, compiledCheckpoint);
+                  } catch(final ExecException ex) {
+                    // only remember failures reported by the compiler
+                    if (closureFingerprint != null && getDiagnosticsFile(key).length() > 0)
+                      failures.put(key, closureFingerprint);
+                    else
+                      failures.remove(key);
+
+                    return false;
+                  } finally {
+                    progress.finished(key, success, System.currentTimeMillis() - start);
+                  }
+                } finally {
+                  buildService.releaseCompileSlot();
+                }
+              } finally {
+                if (winePrefixPool != null)
+                  winePrefixPool.release(winePrefix);
+              }
+            } finally {
+              parallelism.release();
+            }
+
+            return true;
+          }));
+        }
+
+        for(final Entry<String,Future<Boolean>> compilation: compilations.entrySet())
+        {
+          final String key = compilation.getKey();
+
+          if (!compilation.getValue().get())
+            failedFiles.add(key);
+          else if (!isSyntaxCheck() && compileGraph.isLibrary(key) && updateLibraryChecksum(key, libraryChecksums))
+            changedLibraries.add(key);
         }
-        else
-          logger.log(level, "{} is up-to-date", replaceExtension(mql4FileEntry.getKey(), "ex4"));
       }
+
+      if (!failedFiles.isEmpty())
+        throw new ExecException("failed to compile " + String.join(", ", failedFiles));
+    } catch(final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("mql4 compilation interrupted", ex);
+    } catch(final ExecutionException ex) {
+      throw new GradleException("mql4 compilation failed", ex.getCause());
     } finally {
-      if (tmpBatch != null)
+      executor.shutdownNow();
+      progressLogger.completed();
+
+      if (mirror != null)
       {
-        logger.debug("remove temporary batch file {}", tmpBatch);
-        Files.delete(tmpBatch.toPath());
+        mirror.store();
+        logger.info("mql4 mirror {}: {} file(s) copied", mirror.getMql4Dir(), mirror.getCopied());
+        mirror = null;
+      }
+      storeDurations(mql4Files, durations);
+
+      // keep the state of unselected files when compiling a shard or a subset
+      final boolean partial = extension.getShard() != null || isSubset();
+
+      if (!partial)
+        libraryChecksums.keySet().retainAll(mql4Files.keySet());
+      StateFile.store(libraryChecksumsFile, libraryChecksums);
+
+      if (!partial)
+        failures.keySet().retainAll(mql4Files.keySet());
+      StateFile.store(failuresFile, failures);
+
+      // compact the checkpoints
+      final Map<String,String> completed = StateFile.load(checkpointsFile);
+      if (!partial)
+        completed.keySet().retainAll(mql4Files.keySet());
+      StateFile.store(checkpointsFile, completed);
+
+      if (extension.getShard() != null && !isSyntaxCheck())
+        publishShard(mql4Files);
+    }
+  }
+
+
+  /**
+   * Update the recorded checksum of a compiled library.
+   *
+   * @return  {@code true} if the compiled library differs from the previously compiled one
+   */
+  private boolean updateLibraryChecksum(String key, Map<String,String> libraryChecksums)
+  {
+    final File ex4File = getEx4File(key);
+    String checksum;
+
+    try {
+      checksum = Checksums.checksum(ex4File);
+    } catch(final IOException ex) {
+      getLogger().warn("failed to calculate checksum for {}", ex4File, ex);
+      checksum = null;
+    }
+
+    final boolean changed = checksum == null || !checksum.equals(libraryChecksums.get(key));
+
+    if (checksum == null)
+      libraryChecksums.remove(key);
+    else
+      libraryChecksums.put(key, checksum);
+
+    getLogger().debug("library {} {}", key, changed ? "has changed" : "is unchanged");
+
+    return changed;
+  }
+
+
+  /**
+   * Returns the identification of the compiler used by this task. A different compiler (or agent) may produce
+   * different results, so it is part of the closure fingerprint of a file.
+   */
+  private String getToolchain()
+  {
+    if (extension.getCompileAgent() != null)
+      return "agent:" + extension.getCompileAgent();
+
+    final String metaeditor = extension.getMetaeditor();
+    final String checksum = metaeditor == null ? null : MetaeditorCache.getMetaeditorChecksum(new File(metaeditor));
+
+    return "metaeditor:" + (checksum == null ? metaeditor : checksum);
+  }
+
+
+  private String getClosureFingerprint(Mql4Dependency dependency, String toolchain, Map<String,String> checksums)
+  {
+    try {
+      return Mql4Fingerprint.ofClosure(dependency, toolchain, checksums);
+    } catch(final IOException ex) {
+      getLogger().debug("failed to calculate closure fingerprint for {}", dependency.getFile(), ex);
+      return null;
+    }
+  }
+
+
+  /**
+   * Returns the checkpoint of a compiled file, consisting of the closure fingerprint and the checksum of the ex4 file.
+   * Verifying the checksum rejects ex4 files which have been modified or truncated since they were compiled.
+   *
+   * @return  checkpoint or {@code null} if the closure fingerprint is not available or the ex4 file can't be read
+   */
+  private String getCheckpoint(String relativeMq4Path, String closureFingerprint)
+  {
+    if (closureFingerprint == null || isSyntaxCheck())
+      return closureFingerprint;
+
+    final File ex4File = getEx4File(relativeMq4Path);
+    if (!ex4File.isFile())
+      return null;
+
+    try {
+      return closureFingerprint + ':' + Checksums.checksum(ex4File);
+    } catch(final IOException ex) {
+      getLogger().debug("failed to calculate checksum for {}", ex4File, ex);
+      return null;
+    }
+  }
+
+
+  /**
+   * Report the errors of a file which failed to compile before and hasn't changed since.
+   *
+   * @return  {@code true} if the errors have been reported, {@code false} if the diagnostics are not available
+   */
+  private boolean reportFailure(String relativeMq4Path)
+  {
+    final File diagnosticsFile = getDiagnosticsFile(relativeMq4Path);
+    if (!diagnosticsFile.isFile())
+      return false;
+
+    try {
+      getLogger().error("{} is unchanged and failed to compile before\n{}",
+          relativeMq4Path, formatLog(Files.readAllLines(diagnosticsFile.toPath(), UTF_8)));
+
+      return true;
+    } catch(final IOException ex) {
+      getLogger().debug("failed to read diagnostics {}", diagnosticsFile, ex);
+      return false;
+    }
+  }
+
+
+  private void storeDurations(Map<String,Mql4Dependency> mql4Files, Map<String,String> durations)
+  {
+    final File durationsFile = new File(getStateDir(), DURATIONS_FILE);
+    final Map<String,String> recordedDurations = StateFile.load(durationsFile);
+
+    recordedDurations.putAll(durations);
+
+    // only keep durations for selected files when not sharding; otherwise other shards' durations would be lost
+    if (extension.getShard() == null && !isSubset())
+      recordedDurations.keySet().retainAll(mql4Files.keySet());
+
+    StateFile.store(durationsFile, recordedDurations);
+  }
+
+
+  /**
+   * Copy the ex4 files of this shard to {@code <stateDir>/ex4}. Together with the compile logs and the recorded
+   * durations, the state directory forms the shard bundle which is consumed by {@link MergeMQL4ShardsTask}.
+   */
+  private void publishShard(Map<String,Mql4Dependency> mql4Files)
+  {
+    final File ex4Dir = new File(getStateDir(), SHARD_EX4_DIR);
+    final File diagnosticsDir = new File(getStateDir(), DIAGNOSTICS_DIR);
+    final Set<String> shardLogs = mql4Files.keySet()
+        .stream()
+        .map(f -> replaceExtension(f, "log").replace('\\', '/'))
+        .collect(Collectors.toSet());
+
+    getProject().delete(ex4Dir);
+
+    // remove logs of files not belonging to this shard (eg. from a previous run with a different shard)
+    if (diagnosticsDir.isDirectory())
+    {
+      getProject().fileTree(diagnosticsDir).visit((FileVisitDetails details) -> {
+        if (!details.isDirectory() && !shardLogs.contains(details.getRelativePath().getPathString()))
+          details.getFile().delete();
+      });
+    }
+
+    for(final Entry<String,Mql4Dependency> mql4FileEntry: mql4Files.entrySet())
+    {
+      final File ex4File = getEx4File(mql4FileEntry.getKey());
+
+      if (ex4File.exists())
+      {
+        final File target = new File(ex4Dir, replaceExtension(mql4FileEntry.getKey(), "ex4"));
+
+        try {
+          Files.createDirectories(target.getParentFile().toPath());
+          Files.copy(ex4File.toPath(), target.toPath(), REPLACE_EXISTING, COPY_ATTRIBUTES);
+        } catch(final IOException ex) {
+          throw new GradleException("failed to publish " + ex4File.getAbsolutePath() + " for shard", ex);
+        }
       }
     }
   }
 
 
-  private Map<String,Mql4Dependency> getInputFilesWithDependency()
+  protected Map<String,Mql4Dependency> getInputFilesWithDependency()
   {
     final Map<String,Mql4Dependency> fileSet = new LinkedHashMap<>();
 
-    if (!extension.getIncludes().isEmpty())
+    final File mql4Dir = getMql4Dir();
+    final Set<String> inputFiles =
+        getIncludes().isEmpty() ? new TreeSet<>() : findFiles(mql4Dir, getIncludes(), getExcludes());
+
+    if (sourceSet == null)
     {
-      final Set<String> inputFiles = new TreeSet<>();
+      for(final Mql4SourceSet mql4SourceSet: extension.getSourceSets())
+      {
+        final File sourceSetMql4Dir =
+            mql4SourceSet.getMql4Dir() == null ? extension.getMql4Dir() : mql4SourceSet.getMql4Dir();
+        final Set<String> sourceSetFiles =
+            findFiles(sourceSetMql4Dir, mql4SourceSet.getIncludes(), mql4SourceSet.getExcludes());
+
+        // files selected by a source set are compiled by the source set's task only; compiling them here as well
+        // would compile them twice and, without an output directory, produce the same ex4 files
+        if (!isSyntaxCheck())
+          inputFiles.removeAll(sourceSetFiles);
+        else if (sourceSetMql4Dir.getAbsoluteFile().equals(mql4Dir.getAbsoluteFile()))
+          inputFiles.addAll(sourceSetFiles);
+        else
+          getLogger().info("source set {} has its own mql4Dir and is not checked", mql4SourceSet.getName());
+      }
+    }
 
-      final FileNameFinder finder = new FileNameFinder();
-      final File mql4Dir = extension.getMql4Dir();
+    if (!inputFiles.isEmpty())
+    {
       final String mql4Path = mql4Dir.getAbsolutePath();
 
-      extension.getIncludes().forEach(pattern -> inputFiles.addAll(finder.getFileNames(mql4Path, pattern)));
-      extension.getExcludes().forEach(pattern -> inputFiles.removeAll(finder.getFileNames(mql4Path, pattern)));
+      // one resolver for all files, so directory listings are shared
+      final Mql4IncludeResolver resolver =
+          new Mql4IncludeResolver(mql4Dir, extension.getIncludeDirs(), getDirectiveCache());
 
-      inputFiles.forEach(f -> fileSet.put(makeRelative(mql4Path, f), Mql4Dependency.from(mql4Dir, new File(f))));
+      inputFiles.forEach(f -> fileSet.put(makeRelative(mql4Path, f), Mql4Dependency.from(resolver, new File(f))));
+      getDirectiveCache().store();
+    }
+
+    final Mql4RootFilter subset = getSubset();
+    if (!subset.isEmpty())
+    {
+      final Map<String,Mql4Dependency> selected = subset.apply(fileSet);
+      getLogger().debug("subset {} selects {} of {} files", subset, selected.size(), fileSet.size());
+
+      fileSet.keySet().retainAll(selected.keySet());
+    }
+
+    final Mql4Shard shard = extension.getShard();
+    if (shard != null)
+    {
+      final File shardDurations = extension.getShardDurations();
+      return shard.select(fileSet,
+          shardDurations == null ? Collections.emptyMap() : StateFile.load(shardDurations));
     }
 
     return fileSet;
   }
 
 
+  /**
+   * Returns the absolute paths of the files in the given MQL4 directory matching the includes but not the excludes.
+   */
+  private static Set<String> findFiles(File mql4Dir, List<String> includes, List<String> excludes)
+  {
+    final Set<String> files = new TreeSet<>();
+    final FileNameFinder finder = new FileNameFinder();
+    final String mql4Path = mql4Dir.getAbsolutePath();
+
+    includes.forEach(pattern -> files.addAll(finder.getFileNames(mql4Path, pattern)));
+    excludes.forEach(pattern -> files.removeAll(finder.getFileNames(mql4Path, pattern)));
+
+    return files;
+  }
+
+
+  /**
+   * Returns the cache for the preprocessor directives of the analyzed files, kept in {@code <stateDir>/directives.bin}.
+   */
+  private synchronized Mql4DirectiveCache getDirectiveCache()
+  {
+    if (directiveCache == null)
+      directiveCache = Mql4DirectiveCache.load(new File(getStateDir(), DIRECTIVES_FILE));
+
+    return directiveCache;
+  }
+
+
+  /**
+   * Tells whether files are only checked for syntax errors (metaeditor option {@code /s}), without producing ex4
+   * files.
+   */
+  protected boolean isSyntaxCheck() {
+    return false;
+  }
+
+
+  /**
+   * Invoked after compiling the selected files, even if the compilation has failed.
+   *
+   * @param mql4Files  selected files
+   */
+  protected void afterCompile(Map<String,Mql4Dependency> mql4Files) {
+  }
+
+
+  /**
+   * Tells whether a subset of files is compiled ({@code --file}, {@code --dir} or {@code --changed-since}).
+   */
+  private boolean isSubset() {
+    return !subsetFiles.isEmpty() || !subsetDirs.isEmpty() || changedSince != null;
+  }
+
+
+  private Mql4RootFilter getSubset()
+  {
+    return new Mql4RootFilter(getMql4Dir(), subsetFiles, subsetDirs,
+        changedSince == null ? null : getChangedFiles(changedSince));
+  }
+
+
+  /**
+   * Returns the files changed since the given git ref, including uncommitted and untracked files.
+   *
+   * @param ref  git ref, eg. {@code origin/master}
+   *
+   * @return  normalized, absolute paths of changed files
+   */
+  private synchronized Set<Path> getChangedFiles(String ref)
+  {
+    if (changedFiles == null)
+    {
+      final Path topLevel = new File(git("rev-parse", "--show-toplevel").trim()).toPath().toAbsolutePath();
+      final Set<Path> files = new HashSet<>();
+
+      for(final String output: Arrays.asList(git("diff", "--name-only", ref, "--"),
+                                             git("ls-files", "--others", "--exclude-standard", "--full-name")))
+      {
+        for(final String line: output.split("\r?\n"))
+          if (!line.trim().isEmpty())
+            files.add(topLevel.resolve(line.trim()).normalize());
+      }
+
+      getLogger().debug("files changed since {}: {}", ref, files);
+      changedFiles = files;
+    }
+
+    return changedFiles;
+  }
+
+
+  private String git(String... args)
+  {
+    final ExecAction execAction = getExecActionFactory().newExecAction();
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    execAction.setExecutable("git");
+    execAction.setArgs(Arrays.asList(args));
+    execAction.setWorkingDir(getMql4Dir().getAbsoluteFile());
+    execAction.setStandardOutput(output);
+    execAction.setIgnoreExitValue(true);
+
+    if (execAction.execute().getExitValue() != 0)
+      throw new GradleException("git " + String.join(" ", args) + " failed in " + getMql4Dir().getAbsolutePath());
+
+    return new String(output.toByteArray(), UTF_8);
+  }
+
+
+  protected boolean isMq4File(File file) {
+    return file.getName().toLowerCase().endsWith(".mq4");
+  }
+
+
   protected String makeRelative(String base, String f)
   {
     final int baseLength = base.length();
@@ -211,60 +982,177 @@ public class CompileMQL4Task extends DefaultTask
   }
 
 
-  protected void compileFile(Entry<String,Mql4Dependency> mql4FileEntry, File tmpBatch) throws IOException
+  protected void compileFile(Entry<String,Mql4Dependency> mql4FileEntry, File winePrefix) throws IOException
+  {
+    final String relativeMq4Path = mql4FileEntry.getKey();
+    final Mql4Mirror mirror = this.mirror;
+    // a syntax check must not leave log files (or, on the agent, ex4 files) in the source tree
+    final boolean staged = mirror == null && (getOutputDir() != null || isSyntaxCheck());
+    final File stagingDir = staged ? createStagingDir() : null;
+
+    try {
+      // compile in the mirror or in a staging copy, keeping the source tree untouched
+      final File compileDir = mirror != null
+          ? mirror.getMql4Dir() : staged ? new File(stagingDir, "MQL4") : getMql4Dir();
+
+      if (mirror != null)
+      {
+        mirror.sync(mql4FileEntry.getValue());
+        Files.deleteIfExists(replaceExtension(new File(compileDir, relativeMq4Path), "ex4").toPath());
+      }
+      else if (staged && extension.getCompileAgent() == null)
+        Mql4StagingArea.stage(compileDir, getMql4Dir(), extension.getIncludeDirs(), mql4FileEntry.getValue());
+
+      final boolean success = extension.getCompileAgent() != null
+          ? compileRemote(mql4FileEntry, compileDir)
+          : compileLocal(relativeMq4Path, compileDir,
+                staged || mirror != null ? Collections.emptyList() : extension.getIncludeDirs(), winePrefix);
+
+      final File mq4File = mql4FileEntry.getValue().getFile();
+      final File compiledMq4File = new File(compileDir, relativeMq4Path);
+      final File logFile = replaceExtension(compiledMq4File, "log");
+
+      try {
+        final File ex4File = replaceExtension(compiledMq4File, "ex4");
+
+        final List<String> log = logFile.exists() ? readLogfileLines(logFile) : Collections.emptyList();
+        writeDiagnostics(relativeMq4Path, log);
+
+        final boolean compiled = isSyntaxCheck()
+            ? success && Mql4Diagnostics.parse(relativeMq4Path, log).isSuccessful()
+            : success && ex4File.exists() && ex4File.lastModified() >= mq4File.lastModified();
+
+        if (!compiled)
+        {
+          if (logFile.exists())
+            getLogger().error("{}", formatLog(log));
+
+          final File compilerOutputFile = getCompilerOutputFile(relativeMq4Path);
+          if (compilerOutputFile.isFile())
+            getLogger().error("compiler output of {}: {}", relativeMq4Path, compilerOutputFile);
+
+          throw new ExecException("failed to compile " + relativeMq4Path);
+        }
+
+        if (logFile.exists())
+          getLogger().log(extension.isVerbose() ? LogLevel.QUIET : LogLevel.DEBUG, "{}", formatLog(log));
+
+        if (mirror != null && !isSyntaxCheck())
+          mirror.publish(ex4File, getEx4File(relativeMq4Path));
+        else if (staged && !isSyntaxCheck())
+          Mql4StagingArea.publish(ex4File, getEx4File(relativeMq4Path));
+      } finally {
+        logFile.delete();
+      }
+    } finally {
+      if (stagingDir != null)
+        Mql4StagingArea.delete(stagingDir);
+    }
+  }
+
+
+  private File createStagingDir() throws IOException
+  {
+    final File stagingRoot = new File(getStateDir(), STAGING_DIR);
+    Files.createDirectories(stagingRoot.toPath());
+
+    return Files.createTempDirectory(stagingRoot.toPath(), "compile-").toFile();
+  }
+
+
+  /**
+   * Compile the file using metaeditor, either natively or in a wine environment.
+   *
+   * @param relativeMq4Path  path of the mq4 file, relative to {@code compileDir}
+   * @param compileDir       MQL4 directory (or a staging copy)
+   * @param includeDirs      additional include directories
+   * @param winePrefix       wine prefix or {@code null}
+   *
+   * @return  {@code false} if the compiler reported a failure, {@code true} otherwise
+   */
+  protected boolean compileLocal(String relativeMq4Path, File compileDir, List<File> includeDirs, File winePrefix)
+      throws IOException
   {
     final ExecAction execAction = getExecActionFactory().newExecAction();
     final Wine wine = extension.getWine();
+    File tmpBatch = null;
 
     if (wine.isEnabled())
     {
-      createBatchfile(mql4FileEntry.getKey(), tmpBatch);
+      tmpBatch = File.createTempFile("mql4c-", ".cmd", compileDir);
+      tmpBatch.deleteOnExit();
+      getLogger().debug("created temporary batch file {}", tmpBatch);
+
+      createBatchfile(relativeMq4Path, includeDirs, tmpBatch);
 
       execAction.setExecutable(wine.getExecutable());
       execAction.setArgs(Arrays.asList("cmd", "/c", tmpBatch.getAbsolutePath()));
 
-      configureWineEnvironment(execAction);
+      configureWineEnvironment(execAction, winePrefix);
     }
     else
     {
+      final List<String> args = new ArrayList<>();
+
+      args.add("/compile:\"" + relativeMq4Path + "\"");
+      args.add("/inc:\"" + compileDir + "\"");
+      includeDirs.forEach(includeDir -> args.add("/inc:\"" + includeDir.getAbsolutePath() + "\""));
+      if (isSyntaxCheck())
+        args.add("/s");
+      args.add("/log");
+
       execAction.setExecutable(extension.getMetaeditor());
-      execAction.setArgs(Arrays.asList("/compile:\"" + mql4FileEntry.getKey() + "\"", "/inc:\"" +
-          extension.getMql4Dir() + "\"", "/log"));
+      execAction.setArgs(args);
     }
 
-    execAction.setWorkingDir(extension.getMql4Dir());
+    execAction.setWorkingDir(compileDir);
 
     // windows: metaeditor.exe returns the number of compiled files... we expect 1
     // non-windows: wine will return a code which has no relation to whether compilation has succeeded/failed
     // -> ignore return code as it is useless
     execAction.setIgnoreExitValue(true);
 
-    final ExecResult result = execAction.execute();
-    final File mq4File = mql4FileEntry.getValue().getFile();
-    final File logFile = replaceExtension(mq4File, "log");
+    final ExecResult result;
+    try(Mql4OutputCapture output = new Mql4OutputCapture(relativeMq4Path.replace('\\', '/'),
+        getCompilerOutputFile(relativeMq4Path), getLogger(), extension.isVerbose() ? LogLevel.QUIET : LogLevel.INFO)) {
+      execAction.setStandardOutput(output.getStandardOutput());
+      execAction.setErrorOutput(output.getErrorOutput());
 
-    try {
-      final File ex4File = replaceExtension(mq4File, "ex4");
-
-      if ((!wine.isEnabled() && result.getExitValue() != 1) ||
-          !ex4File.exists() ||
-          ex4File.lastModified() < mq4File.lastModified())
+      result = execAction.execute();
+    } finally {
+      if (tmpBatch != null)
       {
-        if (logFile.exists())
-          getLogger().error("{}", readLogfile(logFile));
-
-        throw new ExecException("failed to compile " + mql4FileEntry.getKey());
+        getLogger().debug("remove temporary batch file {}", tmpBatch);
+        Files.delete(tmpBatch.toPath());
       }
-
-      if (logFile.exists())
-        getLogger().log(extension.isVerbose() ? LogLevel.QUIET : LogLevel.DEBUG, "{}", readLogfile(logFile));
-    } finally {
-      logFile.delete();
     }
+
+    // windows: metaeditor.exe returns the number of compiled files
+    return wine.isEnabled() || result.getExitValue() == 1;
+  }
+
+
+  /**
+   * Compile the file on the configured compile agent.
+   *
+   * @param mql4FileEntry  relative path and dependency tree of the mq4 file
+   * @param resultDir      directory receiving the ex4 and log file
+   *
+   * @return  {@code false} if the agent reported a failure, {@code true} otherwise
+   */
+  protected boolean compileRemote(Entry<String,Mql4Dependency> mql4FileEntry, File resultDir) throws IOException
+  {
+    final Mql4RemoteCompiler remoteCompiler = new Mql4RemoteCompiler(new URL(extension.getCompileAgent()),
+        extension.getCompileAgentTimeout() * 1000);
+
+    getLogger().debug("compile {} on agent {}", mql4FileEntry.getKey(), remoteCompiler.getAgentUrl());
+
+    return remoteCompiler.compile(getMql4Dir(), extension.getIncludeDirs(), mql4FileEntry.getKey(),
+        mql4FileEntry.getValue(), resultDir);
   }
 
 
-  protected void configureWineEnvironment(ExecAction execAction)
+  protected void configureWineEnvironment(ExecAction execAction, File winePrefix)
   {
     final Map<String,Object> environment = execAction.getEnvironment();
 
@@ -272,7 +1160,6 @@ public class CompileMQL4Task extends DefaultTask
     environment.put("WINEDEBUG", "-all");
 
     // set custom wine prefix
-    final File winePrefix = extension.getWine().getPrefix();
     if (winePrefix != null)
     {
       environment.put("WINEPREFIX", winePrefix.getAbsolutePath());
@@ -281,22 +1168,46 @@ public class CompileMQL4Task extends DefaultTask
   }
 
 
-  protected void createBatchfile(String relativeMq4Path, File batchFile) throws IOException
+  protected void createBatchfile(String relativeMq4Path, List<File> includeDirs, File batchFile) throws IOException
   {
     try(Writer batchWriter = new OutputStreamWriter(new FileOutputStream(batchFile), ISO_8859_1)) {
       batchWriter.append("@ECHO OFF\r\n")
                  .append('"').append(extension.getMetaeditor()).append("\" ")
-                 .append("/compile:\"").append(relativeMq4Path.replace("/", "\\")).append("\" ")
-                 .append("/log")
+                 .append("/compile:\"").append(relativeMq4Path.replace("/", "\\")).append("\" ");
+
+      // wine maps the unix root directory to drive Z:
+      for(final File includeDir: includeDirs)
+        batchWriter.append("/inc:\"Z:").append(includeDir.getAbsolutePath().replace("/", "\\")).append("\" ");
+
+      if (isSyntaxCheck())
+        batchWriter.append("/s ");
+
+      batchWriter.append("/log")
                  .append("\r\n");
     }
   }
 
 
-  protected String readLogfile(File logFile)
+  protected String readLogfile(File logFile) {
+    return formatLog(readLogfileLines(logFile));
+  }
+
+
+  protected String formatLog(List<String> lines)
   {
     final StringBuilder text = new StringBuilder();
 
+    for(final String line: lines)
+      text.append("|  ").append(line).append('\n');
+
+    return text.toString();
+  }
+
+
+  protected List<String> readLogfileLines(File logFile)
+  {
+    final List<String> lines = new ArrayList<>();
+
     try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), UTF_16LE))) {
       boolean start = true;
       String line;
@@ -314,50 +1225,69 @@ public class CompileMQL4Task extends DefaultTask
             continue;
         }
 
-        text.append("|  ").append(line).append('\n');
+        lines.add(line);
         start = false;
       }
     } catch(final Exception ex) {
       getLogger().error("failed to read log file {}", logFile.getAbsolutePath(), ex);
     }
 
-    return text.toString();
+    return lines;
   }
 
 
-  protected String replaceExtension(String filename, String ext)
+  /**
+   * Write the compile log for the given file to {@code <stateDir>/logs}.
+   */
+  protected void writeDiagnostics(String relativeMq4Path, List<String> log)
   {
-    final int dotIdx = filename.lastIndexOf('.');
-    return (dotIdx < 0) ? (filename + '.' + ext) : (filename.substring(0, dotIdx + 1) + ext);
+    final File diagnosticsFile = getDiagnosticsFile(relativeMq4Path);
+
+    try {
+      Files.createDirectories(diagnosticsFile.getParentFile().toPath());
+      Files.write(diagnosticsFile.toPath(), log, UTF_8);
+    } catch(final IOException ex) {
+      getLogger().warn("failed to write diagnostics {}", diagnosticsFile, ex);
+    }
   }
 
 
-  protected File replaceExtension(File f, String ext) {
-    return new File(f.getParent(), replaceExtension(f.getName(), ext));
+  private File getDiagnosticsFile(String relativeMq4Path) {
+    return new File(new File(getStateDir(), DIAGNOSTICS_DIR), replaceExtension(relativeMq4Path, "log"));
+  }
+
+
+  /**
+   * Returns the file capturing the console output of the compiler for the given file.
+   */
+  private File getCompilerOutputFile(String relativeMq4Path) {
+    return new File(new File(getStateDir(), COMPILER_OUTPUT_DIR), replaceExtension(relativeMq4Path, "txt"));
   }
 
 
-  protected void createWinePrefixParentDirectory()
+  protected String replaceExtension(String filename, String ext)
   {
-    final Wine wine = extension.getWine();
+    final int dotIdx = filename.lastIndexOf('.');
+    return (dotIdx < 0) ? (filename + '.' + ext) : (filename.substring(0, dotIdx + 1) + ext);
+  }
 
-    if (wine.isEnabled())
-    {
-      final File wineprefixParent = wine.getPrefix().getParentFile();
 
-      if (!wineprefixParent.isDirectory())
-        wineprefixParent.mkdirs();
-    }
+  protected File replaceExtension(File f, String ext) {
+    return new File(f.getParent(), replaceExtension(f.getName(), ext));
   }
 
 
   protected void resolveMetaeditor()
   {
+    if (metaeditorResolved)
+      return;
+
     final Project project = getProject();
-    final File buildDir = project.getBuildDir();
     final Configuration configuration = extension.getMql4Configuration();
     final DependencySet configurationDependencies = configuration.getDependencies();
 
+    metaeditorResolved = true;
+
     if (configurationDependencies.isEmpty())
     {
       // no dependencies but metaeditor is set -> custom metaeditor provided; nothing to do.
@@ -367,17 +1297,11 @@ public class CompileMQL4Task extends DefaultTask
       configurationDependencies.add(project.getDependencies().create("de.sayayi:metaeditor:5.+@jar"));
     }
 
-    final File metaeditorExe = new File(buildDir, "metaeditor.exe");
-    extension.setMetaeditor(metaeditorExe.getAbsolutePath());
+    final File metaeditorExe = new MetaeditorCache(
+        new File(project.getGradle().getGradleUserHomeDir(), "caches/mql4/metaeditor"))
+        .resolve(configuration.getSingleFile());
 
-    if (!metaeditorExe.exists())
-    {
-      project.getLogger().debug("extracting metaeditor.exe to {}", metaeditorExe);
-      project.copy(copy -> {
-        copy.from(project.zipTree(configuration.getSingleFile()));
-        copy.include("metaeditor.exe");
-        copy.into(buildDir);
-      });
-    }
+    project.getLogger().debug("use cached metaeditor {}", metaeditorExe);
+    extension.setMetaeditor(metaeditorExe.getAbsolutePath());
   }
 }
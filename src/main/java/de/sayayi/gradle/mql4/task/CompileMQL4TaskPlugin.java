@@ -18,17 +18,15 @@ package de.sayayi.gradle.mql4.task;
 import static org.gradle.api.plugins.BasePlugin.ASSEMBLE_TASK_NAME;
 import static org.gradle.api.plugins.BasePlugin.BUILD_GROUP;
 import static org.gradle.api.plugins.BasePlugin.CLEAN_TASK_NAME;
+import static org.gradle.api.plugins.HelpTasksPlugin.HELP_GROUP;
+import static org.gradle.language.base.plugins.LifecycleBasePlugin.VERIFICATION_GROUP;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.nio.charset.StandardCharsets;
 
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.dsl.RepositoryHandler;
-import org.gradle.api.logging.Logger;
-import org.gradle.api.logging.Logging;
 import org.gradle.api.tasks.TaskContainer;
 import org.gradle.internal.os.OperatingSystem;
 
@@ -38,11 +36,14 @@ import org.gradle.internal.os.OperatingSystem;
  */
 public class CompileMQL4TaskPlugin implements Plugin<Project>
 {
-  private static final Logger logger = Logging.getLogger(CompileMQL4TaskPlugin.class);
-
   static final String MQL4_EXTENSION_NAME = "mql4";
   static final String MQL4_CONFIGURATION_NAME = "mql4-metaeditor";
   static final String COMPILE_MQl4_TASK_NAME = "compileMql4";
+  static final String MERGE_MQL4_SHARDS_TASK_NAME = "mergeMql4Shards";
+  static final String CHECK_MQL4_TASK_NAME = "checkMql4";
+  static final String MQL4_DEPENDENCIES_TASK_NAME = "mql4Dependencies";
+  static final String MQL4_DISTRIBUTION_TASK_NAME = "mql4Distribution";
+  static final String DEPLOY_MQL4_TASK_NAME = "deployMql4";
 
 
   @Override
@@ -63,12 +64,47 @@ public class CompileMQL4TaskPlugin implements Plugin<Project>
     final TaskContainer tasks = project.getTasks();
     final CompileMQL4Task compileMql4Task = createCompileMql4Task(tasks, mql4);
 
+    tasks.create(CHECK_MQL4_TASK_NAME, CheckMQL4Task.class, task -> {
+      task.setDescription("Checks the syntax of MQL4 indicator, expert advisor and script files.");
+      task.setGroup(VERIFICATION_GROUP);
+      task.setExtension(mql4);
+    });
+
+    tasks.create(MQL4_DEPENDENCIES_TASK_NAME, Mql4DependenciesTask.class, task -> {
+      task.setDescription("Exports the MQL4 include graph and determines the files affected by changed files.");
+      task.setGroup(HELP_GROUP);
+      task.setCompileTask(compileMql4Task);
+    });
+
+    tasks.create(MQL4_DISTRIBUTION_TASK_NAME, Mql4DistributionTask.class, task -> {
+      task.setDescription("Packs the compiled MQL4 files into a reproducible zip archive.");
+      task.setGroup(BUILD_GROUP);
+      task.setCompileTask(compileMql4Task);
+      task.dependsOn(compileMql4Task);
+    });
+
+    tasks.create(DEPLOY_MQL4_TASK_NAME, Mql4DeployTask.class, task -> {
+      task.setDescription("Deploys the compiled MQL4 files into terminal MQL4 directories.");
+      task.setGroup(BUILD_GROUP);
+      task.setCompileTask(compileMql4Task);
+      task.dependsOn(compileMql4Task);
+    });
+
+    tasks.create(MERGE_MQL4_SHARDS_TASK_NAME, MergeMQL4ShardsTask.class, task -> {
+      task.setDescription("Merges the ex4 files and diagnostics of sharded MQL4 compilations.");
+      task.setGroup(BUILD_GROUP);
+    });
+
     // assemble.dependsOn('compileMql4')
     tasks.findByName(ASSEMBLE_TASK_NAME).dependsOn(compileMql4Task);
 
+    // one task per source set: compileMql4<Name>
+    mql4.getSourceSets().all(sourceSet -> tasks.findByName(ASSEMBLE_TASK_NAME)
+        .dependsOn(createCompileMql4Task(tasks, mql4, sourceSet)));
+
     // clean.doLast { ... }
     tasks.findByName(CLEAN_TASK_NAME).doLast(task -> {
-        compileMql4Task.getEx4Files().forEach(File::delete);
+        tasks.withType(CompileMQL4Task.class).forEach(t -> t.getEx4Files().forEach(File::delete));
     });
   }
 
@@ -83,6 +119,18 @@ public class CompileMQL4TaskPlugin implements Plugin<Project>
   }
 
 
+  private CompileMQL4Task createCompileMql4Task(TaskContainer tasks, CompileMQL4Extension mql4,
+      Mql4SourceSet sourceSet)
+  {
+    return tasks.create(sourceSet.getCompileTaskName(), CompileMQL4Task.class, task -> {
+          task.setDescription("Compiles MQL4 source set '" + sourceSet.getName() + "'.");
+          task.setGroup(BUILD_GROUP);
+          task.setExtension(mql4);
+          task.setSourceSet(sourceSet);
+        });
+  }
+
+
   private Configuration createMql4Configuration(Project project)
   {
     final RepositoryHandler repositories = project.getRepositories();
@@ -97,61 +145,7 @@ public class CompileMQL4TaskPlugin implements Plugin<Project>
   }
 
 
-  protected void autoConfigureWine(CompileMQL4Extension mql4, Project project)
-  {
-    final Wine wine = mql4.getWine();
-
-    wine.setEnabled(true);
-    wine.setPrefix(new File(project.getBuildDir(), ".wine"));
-
-    // try to find the most likely wine prefix
-    File wineprefix = getEnvironmentVariableAsFile("WINEPREFIX");
-    if (wineprefix == null)
-    {
-      final File _home = getEnvironmentVariableAsFile("HOME");
-      if (_home != null && _home.isDirectory())
-        wineprefix = new File(_home, ".wine");
-    }
-
-    if (wineprefix != null)
-    {
-      if (!wineprefix.isDirectory())
-      {
-        // environment does not exist yet; it will be created on 1st invocation of wine
-        wine.setPrefix(wineprefix);
-      }
-      else
-      {
-        // environment already exists; check architecture
-        final byte[] headSystemReg = new byte[100];
-        boolean win32 = true;
-
-        try(FileInputStream systemReg = new FileInputStream(new File(wineprefix, "system.reg"))) {
-          logger.debug("detecting windows architecture for wine environment {}...", wineprefix);
-          systemReg.read(headSystemReg);
-
-          win32 &= !new String(headSystemReg, StandardCharsets.US_ASCII).contains("#arch=win32");
-          logger.debug("{}-bit windows architecture found", win32 ? "32" : "64");
-        } catch(final Exception ex) {
-          // wine environment exists but system.reg is not accessible -> don't trust it and use fallback
-          logger.warn("failed to read {}/system.reg", wineprefix, ex);
-          win32 = false;
-        }
-
-        if (win32)
-          wine.setPrefix(wineprefix);
-        else
-          logger.debug("wine environment {} has no 32-bit windows architecture", wineprefix);
-      }
-    }
-
-    logger.debug("use wine environment {}", wine.getPrefix());
-  }
-
-
-  protected File getEnvironmentVariableAsFile(String property)
-  {
-    final String value = System.getenv(property);
-    return (value != null && !value.isEmpty()) ? new File(value) : null;
+  protected void autoConfigureWine(CompileMQL4Extension mql4, Project project) {
+    Mql4BuildService.get(project).configureWine(mql4.getWine());
   }
 }
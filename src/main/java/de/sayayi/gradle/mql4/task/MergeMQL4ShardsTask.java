@@ -0,0 +1,156 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static de.sayayi.gradle.mql4.task.CompileMQL4Task.DIAGNOSTICS_DIR;
+import static de.sayayi.gradle.mql4.task.CompileMQL4Task.DURATIONS_FILE;
+import static de.sayayi.gradle.mql4.task.CompileMQL4Task.SHARD_EX4_DIR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+
+/**
+ * <p>
+ *   Merges the results of sharded {@code compileMql4} runs ({@code -Pmql4.shard=i/n}). Each shard directory is a copy
+ *   of the state directory of a shard's compile task ({@code build/mql4/compileMql4}), containing the compiled ex4
+ *   files, the compile logs and the recorded durations.
+ * </p>
+ *
+ * <p>
+ *   The merged destination directory contains all ex4 files, a {@code diagnostics.txt} file with the compile logs of
+ *   all shards (sorted by file) and the merged durations, which can be used as {@code shardDurations} for subsequent
+ *   sharded builds.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public class MergeMQL4ShardsTask extends DefaultTask
+{
+  static final String DIAGNOSTICS_FILE = "diagnostics.txt";
+
+  private final ConfigurableFileCollection shards = getProject().files();
+  private File destinationDir = new File(getProject().getBuildDir(), "mql4/merged");
+
+
+  @InputFiles
+  public ConfigurableFileCollection getShards() {
+    return shards;
+  }
+
+
+  @OutputDirectory
+  public File getDestinationDir() {
+    return destinationDir;
+  }
+
+
+  public void from(Object... shardDirs) {
+    shards.from(shardDirs);
+  }
+
+
+  public void setDestinationDir(File destinationDir) {
+    this.destinationDir = destinationDir;
+  }
+
+
+  public void setDestinationDir(String destinationDir) {
+    this.destinationDir = getProject().file(destinationDir);
+  }
+
+
+  @TaskAction
+  public void merge() throws IOException
+  {
+    getProject().delete(destinationDir);
+
+    final File ex4DestinationDir = new File(destinationDir, SHARD_EX4_DIR);
+    final Map<String,File> ex4Files = new TreeMap<>();
+    final Map<String,File> logFiles = new TreeMap<>();
+    final Map<String,String> durations = new TreeMap<>();
+
+    for(final File shardDir: shards.getFiles())
+    {
+      if (!shardDir.isDirectory())
+        continue;
+
+      getLogger().debug("merge mql4 shard {}", shardDir);
+
+      collect(new File(shardDir, SHARD_EX4_DIR), ex4Files);
+      collect(new File(shardDir, DIAGNOSTICS_DIR), logFiles);
+
+      durations.putAll(StateFile.load(new File(shardDir, DURATIONS_FILE)));
+    }
+
+    for(final Entry<String,File> ex4File: ex4Files.entrySet())
+    {
+      final File target = new File(ex4DestinationDir, ex4File.getKey());
+
+      Files.createDirectories(target.getParentFile().toPath());
+      Files.copy(ex4File.getValue().toPath(), target.toPath(), REPLACE_EXISTING, COPY_ATTRIBUTES);
+    }
+
+    try(Writer diagnostics = Files.newBufferedWriter(new File(destinationDir, DIAGNOSTICS_FILE).toPath(), UTF_8)) {
+      for(final Entry<String,File> logFile: logFiles.entrySet())
+      {
+        diagnostics.append("--- ").append(logFile.getKey()).append('\n');
+
+        for(final String line: Files.readAllLines(logFile.getValue().toPath(), UTF_8))
+          diagnostics.append(line).append('\n');
+      }
+    }
+
+    StateFile.store(new File(destinationDir, DURATIONS_FILE), durations);
+
+    getLogger().info("merged {} ex4 file(s) from {} shard(s) into {}", ex4Files.size(), shards.getFiles().size(),
+        destinationDir);
+  }
+
+
+  private void collect(File dir, Map<String,File> files)
+  {
+    if (dir.isDirectory())
+    {
+      getProject().fileTree(dir).visit((FileVisitDetails details) -> {
+        if (!details.isDirectory())
+        {
+          final String path = details.getRelativePath().getPathString();
+
+          // shards are disjoint; the same file in different shards indicates inconsistent shard configurations
+          if (files.put(path, details.getFile()) != null)
+            throw new GradleException(path + " is contained in more than one mql4 shard");
+        }
+      });
+    }
+  }
+}
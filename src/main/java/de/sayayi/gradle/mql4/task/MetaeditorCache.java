@@ -0,0 +1,166 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * <p>
+ *   Cache for {@code metaeditor.exe} extracted from a metaeditor artifact. The executable is extracted once for each
+ *   artifact checksum and shared by all projects (and builds) using the same gradle user home.
+ * </p>
+ *
+ * <p>
+ *   Layout: {@code <cacheDir>/<artifact sha-256>/metaeditor.exe}, accompanied by {@code metaeditor.exe.sha256}
+ *   containing the checksum of the executable itself.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString
+public class MetaeditorCache
+{
+  private static final Logger LOGGER = Logging.getLogger(MetaeditorCache.class);
+
+  static final String METAEDITOR_EXE = "metaeditor.exe";
+
+  @Getter
+  private final File cacheDir;
+
+
+  public MetaeditorCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+
+  /**
+   * Returns the cached metaeditor executable for the given artifact, extracting it if required.
+   *
+   * @param artifact  zip/jar archive containing {@code metaeditor.exe}
+   *
+   * @return  cached metaeditor executable, never {@code null}
+   */
+  public File resolve(File artifact)
+  {
+    try {
+      final String artifactChecksum = Checksums.checksum(artifact);
+      final File entryDir = new File(cacheDir, artifactChecksum);
+      final File metaeditorExe = new File(entryDir, METAEDITOR_EXE);
+
+      if (!isComplete(metaeditorExe))
+      {
+        if (!cacheDir.isDirectory())
+          cacheDir.mkdirs();
+
+        // other projects or gradle processes may be extracting the same artifact
+        try(RandomAccessFile lockFile = new RandomAccessFile(new File(cacheDir, artifactChecksum + ".lock"), "rw");
+            FileChannel channel = lockFile.getChannel();
+            FileLock lock = channel.lock()) {
+          if (!isComplete(metaeditorExe))
+            extract(artifact, entryDir, metaeditorExe);
+        }
+      }
+
+      return metaeditorExe;
+    } catch(final IOException ex) {
+      throw new GradleException("failed to extract " + METAEDITOR_EXE + " from " + artifact.getAbsolutePath(), ex);
+    }
+  }
+
+
+  /**
+   * Returns the checksum of the metaeditor executable.
+   *
+   * @param metaeditorExe  metaeditor executable
+   *
+   * @return  checksum or {@code null} if the executable is not accessible
+   */
+  public static String getMetaeditorChecksum(File metaeditorExe)
+  {
+    if (!metaeditorExe.isFile())
+      return null;
+
+    try {
+      final File checksumFile = getChecksumFile(metaeditorExe);
+
+      return checksumFile.isFile()
+          ? new String(Files.readAllBytes(checksumFile.toPath()), US_ASCII).trim()
+          : Checksums.checksum(metaeditorExe);
+    } catch(final IOException ex) {
+      LOGGER.warn("failed to calculate checksum for {}", metaeditorExe, ex);
+      return null;
+    }
+  }
+
+
+  private void extract(File artifact, File entryDir, File metaeditorExe) throws IOException
+  {
+    LOGGER.debug("extracting {} from {} to {}", METAEDITOR_EXE, artifact, entryDir);
+
+    if (!entryDir.isDirectory())
+      entryDir.mkdirs();
+
+    final File tmpFile = File.createTempFile(METAEDITOR_EXE, ".tmp", entryDir);
+
+    try {
+      try(ZipFile zipFile = new ZipFile(artifact)) {
+        final ZipEntry entry = zipFile.getEntry(METAEDITOR_EXE);
+        if (entry == null)
+          throw new GradleException(artifact.getAbsolutePath() + " does not contain " + METAEDITOR_EXE);
+
+        try(InputStream in = zipFile.getInputStream(entry)) {
+          Files.copy(in, tmpFile.toPath(), REPLACE_EXISTING);
+        }
+      }
+
+      // write checksum first; the executable being present marks the cache entry as complete
+      Files.write(getChecksumFile(metaeditorExe).toPath(), Checksums.checksum(tmpFile).getBytes(US_ASCII));
+      Files.move(tmpFile.toPath(), metaeditorExe.toPath(), ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmpFile.toPath());
+    }
+  }
+
+
+  private boolean isComplete(File metaeditorExe) {
+    return metaeditorExe.isFile() && getChecksumFile(metaeditorExe).isFile();
+  }
+
+
+  private static File getChecksumFile(File metaeditorExe) {
+    return new File(metaeditorExe.getParentFile(), metaeditorExe.getName() + ".sha256");
+  }
+}
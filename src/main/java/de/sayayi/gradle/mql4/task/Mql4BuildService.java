@@ -0,0 +1,236 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtensionContainer;
+import org.gradle.process.internal.ExecActionFactory;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * <p>
+ *   Build wide service shared by all projects applying the mql4 plugin. It is registered once per build as an
+ *   extension of the root project.
+ * </p>
+ *
+ * <p>
+ *   The service detects the wine environment once, owns the wine prefix (pool) setup and limits the number of
+ *   concurrent compilations for all {@code compileMql4} tasks in the build. The limit can be configured with project
+ *   property {@code mql4.maxConcurrentCompiles} and defaults to the number of available processors.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString(of = { "maxConcurrentCompiles", "detectedWinePrefix" })
+public class Mql4BuildService
+{
+  private static final Logger LOGGER = Logging.getLogger(Mql4BuildService.class);
+
+  static final String MQL4_BUILD_SERVICE_NAME = "mql4BuildService";
+  static final String MAX_CONCURRENT_COMPILES_PROPERTY = "mql4.maxConcurrentCompiles";
+
+  private final Project rootProject;
+
+  @Getter
+  private final int maxConcurrentCompiles;
+
+  private final Semaphore compileSlots;
+
+  private boolean wineDetected;
+  private File detectedWinePrefix;
+  private WinePrefixPool winePrefixPool;
+
+
+  private Mql4BuildService(Project rootProject)
+  {
+    this.rootProject = rootProject;
+
+    final Object maxConcurrentCompiles = rootProject.findProperty(MAX_CONCURRENT_COMPILES_PROPERTY);
+    this.maxConcurrentCompiles = maxConcurrentCompiles == null
+        ? Runtime.getRuntime().availableProcessors()
+        : Math.max(1, Integer.parseInt(maxConcurrentCompiles.toString()));
+
+    compileSlots = new Semaphore(this.maxConcurrentCompiles, true);
+  }
+
+
+  /**
+   * Returns the build service for the build the given project belongs to.
+   *
+   * @param project  any project in the build
+   *
+   * @return  build service, never {@code null}
+   */
+  public static Mql4BuildService get(Project project)
+  {
+    final Project rootProject = project.getRootProject();
+
+    synchronized(rootProject) {
+      final ExtensionContainer extensions = rootProject.getExtensions();
+      Mql4BuildService service = extensions.findByType(Mql4BuildService.class);
+
+      if (service == null)
+      {
+        service = new Mql4BuildService(rootProject);
+        extensions.add(MQL4_BUILD_SERVICE_NAME, service);
+      }
+
+      return service;
+    }
+  }
+
+
+  /**
+   * Enable wine and set the detected wine prefix. The detection is performed once for the entire build.
+   *
+   * @param wine  wine configuration to update
+   */
+  public synchronized void configureWine(Wine wine)
+  {
+    if (!wineDetected)
+    {
+      detectedWinePrefix = detectWinePrefix();
+      wineDetected = true;
+
+      LOGGER.debug("use wine environment {}", detectedWinePrefix);
+    }
+
+    wine.setEnabled(true);
+    wine.setPrefix(detectedWinePrefix);
+  }
+
+
+  protected File detectWinePrefix()
+  {
+    // fallback: shared wine prefix for all projects in this build
+    File prefix = new File(rootProject.getBuildDir(), ".wine");
+
+    // try to find the most likely wine prefix
+    File wineprefix = getEnvironmentVariableAsFile("WINEPREFIX");
+    if (wineprefix == null)
+    {
+      final File _home = getEnvironmentVariableAsFile("HOME");
+      if (_home != null && _home.isDirectory())
+        wineprefix = new File(_home, ".wine");
+    }
+
+    if (wineprefix != null)
+    {
+      if (!wineprefix.isDirectory())
+      {
+        // environment does not exist yet; it will be created on 1st invocation of wine
+        prefix = wineprefix;
+      }
+      else
+      {
+        // environment already exists; check architecture
+        final byte[] headSystemReg = new byte[100];
+        boolean win32 = true;
+
+        try(FileInputStream systemReg = new FileInputStream(new File(wineprefix, "system.reg"))) {
+          LOGGER.debug("detecting windows architecture for wine environment {}...", wineprefix);
+          systemReg.read(headSystemReg);
+
+          win32 &= !new String(headSystemReg, StandardCharsets.US_ASCII).contains("#arch=win32");
+          LOGGER.debug("{}-bit windows architecture found", win32 ? "32" : "64");
+        } catch(final Exception ex) {
+          // wine environment exists but system.reg is not accessible -> don't trust it and use fallback
+          LOGGER.warn("failed to read {}/system.reg", wineprefix, ex);
+          win32 = false;
+        }
+
+        if (win32)
+          prefix = wineprefix;
+        else
+          LOGGER.debug("wine environment {} has no 32-bit windows architecture", wineprefix);
+      }
+    }
+
+    return prefix;
+  }
+
+
+  protected File getEnvironmentVariableAsFile(String property)
+  {
+    final String value = System.getenv(property);
+    return (value != null && !value.isEmpty()) ? new File(value) : null;
+  }
+
+
+  /**
+   * Prepare the wine environment for a compile task. Either the wine prefix pool is prepared with at least
+   * {@code parallelCompiles} prefixes (limited by {@link #getMaxConcurrentCompiles()}) or the configured wine prefix
+   * is initialized.
+   *
+   * @param execActionFactory  factory for running wine
+   * @param wine               wine configuration
+   * @param parallelCompiles   number of parallel compilations requested by the task
+   */
+  public void prepareWine(ExecActionFactory execActionFactory, Wine wine, int parallelCompiles)
+  {
+    if (wine.isPooled())
+      getWinePrefixPool().prepare(execActionFactory, wine, Math.min(parallelCompiles, maxConcurrentCompiles));
+    else if (wine.getPrefix() != null)
+    {
+      try {
+        WinePrefixPool.initializePrefix(execActionFactory, wine, wine.getPrefix());
+      } catch(final IOException ex) {
+        throw new GradleException("failed to initialize wine prefix " + wine.getPrefix().getAbsolutePath(), ex);
+      }
+    }
+  }
+
+
+  public synchronized WinePrefixPool getWinePrefixPool()
+  {
+    if (winePrefixPool == null)
+    {
+      winePrefixPool = new WinePrefixPool(
+          new File(rootProject.getGradle().getGradleUserHomeDir(), "caches/mql4/wine-template"),
+          new File(rootProject.getBuildDir(), ".wine-pool"));
+    }
+
+    return winePrefixPool;
+  }
+
+
+  /**
+   * Acquire a compile slot. If the maximum number of concurrent compilations in this build has been reached, this
+   * method blocks until a slot has been released.
+   *
+   * @throws InterruptedException  if the thread was interrupted while waiting for a slot
+   */
+  public void acquireCompileSlot() throws InterruptedException {
+    compileSlots.acquire();
+  }
+
+
+  public void releaseCompileSlot() {
+    compileSlots.release();
+  }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * <p>
+ *   Standalone compile agent, which compiles mq4 files on behalf of a remote {@code compileMql4} task. This allows
+ *   builds running on non-windows platforms to use a windows machine for native compilation instead of wine.
+ * </p>
+ *
+ * <p>
+ *   Protocol: the client posts a zip archive to {@code /compile}, containing the source file and all its dependencies
+ *   with paths relative to the MQL4 directory. The file to compile is passed in header {@value #HEADER_FILE}. The
+ *   response is a zip archive containing the compiled ex4 file (on success) and the compile log. Header
+ *   {@value #HEADER_RESULT} contains either {@code success} or {@code failure}.
+ * </p>
+ *
+ * <p>
+ *   Usage: {@code java -jar gradle-mql4-task-agent.jar --metaeditor C:\MT4\metaeditor.exe [--port 8400]
+ *   [--bind 0.0.0.0] [--threads n] [--timeout seconds]}. A metaeditor process running longer than the timeout is
+ *   destroyed and the compilation fails. By default the agent only listens on the loopback interface; it executes the
+ *   compiler for any client able to connect, so it must only be exposed to trusted networks.
+ * </p>
+ *
+ * This class intentionally has no dependencies on the gradle api.
+ *
+ * @author Jeroen Gremmen
+ */
+public class Mql4CompileAgent
+{
+  static final String COMPILE_PATH = "/compile";
+  static final String HEADER_FILE = "X-Mql4-File";
+  static final String HEADER_RESULT = "X-Mql4-Result";
+  static final String RESULT_SUCCESS = "success";
+  static final String RESULT_FAILURE = "failure";
+
+  static final int DEFAULT_PORT = 8400;
+
+  /** default maximum time in seconds a metaeditor process may run */
+  static final int DEFAULT_TIMEOUT = 300;
+
+  private final Compiler compiler;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+
+  public Mql4CompileAgent(Compiler compiler, InetSocketAddress address, int threads) throws IOException
+  {
+    this.compiler = compiler;
+
+    executor = Executors.newFixedThreadPool(threads);
+
+    server = HttpServer.create(address, 0);
+    server.createContext(COMPILE_PATH, this::handleCompile);
+    server.setExecutor(executor);
+  }
+
+
+  public static void main(String[] args) throws IOException
+  {
+    String metaeditor = null;
+    String bind = "127.0.0.1";
+    int port = DEFAULT_PORT;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int timeout = DEFAULT_TIMEOUT;
+
+    // every option requires a value
+    if (args.length % 2 != 0)
+      usage();
+
+    for(int n = 0; n < args.length; n += 2)
+    {
+      switch(args[n])
+      {
+        case "--metaeditor":
+          metaeditor = args[n + 1];
+          break;
+
+        case "--bind":
+          bind = args[n + 1];
+          break;
+
+        case "--port":
+          port = Integer.parseInt(args[n + 1]);
+          break;
+
+        case "--threads":
+          threads = Integer.parseInt(args[n + 1]);
+          break;
+
+        case "--timeout":
+          timeout = Integer.parseInt(args[n + 1]);
+          break;
+
+        default:
+          throw new IllegalArgumentException("unknown option " + args[n]);
+      }
+    }
+
+    if (metaeditor == null)
+      usage();
+
+    final Mql4CompileAgent agent = new Mql4CompileAgent(new MetaeditorCompiler(metaeditor, timeout),
+        new InetSocketAddress(bind, port), threads);
+    agent.start();
+
+    System.out.println("mql4 compile agent listening on " + agent.getAddress());
+  }
+
+
+  private static void usage()
+  {
+    System.err.println("usage: Mql4CompileAgent --metaeditor <path> [--port <port>] [--bind <address>] " +
+        "[--threads <n>] [--timeout <seconds>]");
+    System.exit(1);
+  }
+
+
+  public void start() {
+    server.start();
+  }
+
+
+  public void stop()
+  {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+
+  protected void handleCompile(HttpExchange exchange) throws IOException
+  {
+    try {
+      final String file = exchange.getRequestHeaders().getFirst(HEADER_FILE);
+
+      if (!"POST".equals(exchange.getRequestMethod()) || file == null)
+      {
+        sendError(exchange, 400, "POST with header " + HEADER_FILE + " expected");
+        return;
+      }
+
+      final Path workDir = Files.createTempDirectory("mql4-agent-");
+
+      try {
+        final Path mql4Dir = workDir.resolve("MQL4");
+        final Path mq4File = resolve(mql4Dir, file);
+
+        try(ZipInputStream zip = new ZipInputStream(exchange.getRequestBody())) {
+          unzip(zip, mql4Dir);
+        }
+
+        if (!Files.isRegularFile(mq4File))
+        {
+          sendError(exchange, 400, file + " not found in request");
+          return;
+        }
+
+        final boolean success = compiler.compile(mql4Dir.toFile(), file);
+        final Path ex4File = replaceExtension(mq4File, "ex4");
+        final Path logFile = replaceExtension(mq4File, "log");
+
+        exchange.getResponseHeaders().set(HEADER_RESULT,
+            success && Files.isRegularFile(ex4File) ? RESULT_SUCCESS : RESULT_FAILURE);
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(200, 0);
+
+        try(ZipOutputStream zip = new ZipOutputStream(exchange.getResponseBody())) {
+          if (success)
+            addZipEntry(zip, replaceExtension(file, "ex4"), ex4File);
+
+          addZipEntry(zip, replaceExtension(file, "log"), logFile);
+        }
+      } finally {
+        deleteRecursively(workDir);
+      }
+    } catch(final Exception ex) {
+      sendError(exchange, 500, String.valueOf(ex));
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  private void sendError(HttpExchange exchange, int status, String message)
+  {
+    try {
+      final byte[] body = message.getBytes(UTF_8);
+
+      exchange.sendResponseHeaders(status, body.length);
+      try(OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } catch(final IOException ex) {
+      // response has already been started; nothing we can do
+    }
+  }
+
+
+  private static void unzip(ZipInputStream zip, Path mql4Dir) throws IOException
+  {
+    ZipEntry entry;
+
+    while((entry = zip.getNextEntry()) != null)
+    {
+      if (!entry.isDirectory())
+      {
+        final Path target = resolve(mql4Dir, entry.getName());
+
+        Files.createDirectories(target.getParent());
+        Files.copy(zip, target);
+      }
+    }
+  }
+
+
+  private static void addZipEntry(ZipOutputStream zip, String name, Path file) throws IOException
+  {
+    if (Files.isRegularFile(file))
+    {
+      zip.putNextEntry(new ZipEntry(name));
+      Files.copy(file, zip);
+      zip.closeEntry();
+    }
+  }
+
+
+  private static Path resolve(Path mql4Dir, String relativePath) throws IOException
+  {
+    final Path path = mql4Dir.resolve(relativePath.replace('\\', '/')).normalize();
+
+    // reject entries escaping the mql4 directory
+    if (!path.startsWith(mql4Dir))
+      throw new IOException("illegal path " + relativePath);
+
+    return path;
+  }
+
+
+  static String replaceExtension(String filename, String ext)
+  {
+    final int dotIdx = filename.lastIndexOf('.');
+    return (dotIdx < 0) ? (filename + '.' + ext) : (filename.substring(0, dotIdx + 1) + ext);
+  }
+
+
+  private static Path replaceExtension(Path file, String ext) {
+    return file.resolveSibling(replaceExtension(file.getFileName().toString(), ext));
+  }
+
+
+  private static void deleteRecursively(Path dir) throws IOException
+  {
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+      {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+      {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+
+
+
+  /**
+   * Compiles a single mq4 file. The compiler must create the ex4 file and the log file next to the mq4 file.
+   */
+  @FunctionalInterface
+  public interface Compiler
+  {
+    /**
+     * @param mql4Dir       MQL4 directory containing the source file and its dependencies
+     * @param relativePath  path of the mq4 file, relative to {@code mql4Dir}
+     *
+     * @return  {@code true} if the file has been compiled successfully
+     *
+     * @throws IOException  if the compiler could not be run
+     * @throws InterruptedException  if the thread was interrupted while waiting for the compiler
+     */
+    boolean compile(File mql4Dir, String relativePath) throws IOException, InterruptedException;
+  }
+
+
+
+
+  /**
+   * Compiler running {@code metaeditor.exe} natively.
+   */
+  public static class MetaeditorCompiler implements Compiler
+  {
+    private final String metaeditor;
+    private final int timeout;
+
+
+    public MetaeditorCompiler(String metaeditor) {
+      this(metaeditor, DEFAULT_TIMEOUT);
+    }
+
+
+    /**
+     * @param metaeditor  path of {@code metaeditor.exe}
+     * @param timeout     maximum time in seconds the metaeditor process may run
+     */
+    public MetaeditorCompiler(String metaeditor, int timeout)
+    {
+      this.metaeditor = metaeditor;
+      this.timeout = timeout;
+    }
+
+
+    @Override
+    public boolean compile(File mql4Dir, String relativePath) throws IOException, InterruptedException
+    {
+      // the console output is not needed (the compile log is returned to the client), but must not block the process
+      final Process process = new ProcessBuilder(Arrays.asList(metaeditor,
+          "/compile:\"" + relativePath.replace('/', '\\') + "\"", "/inc:\"" + mql4Dir.getAbsolutePath() + "\"",
+          "/log"))
+          .directory(mql4Dir)
+          .redirectErrorStream(true)
+          .redirectOutput(new File(mql4Dir.getAbsoluteFile().getParentFile(), "metaeditor.out"))
+          .start();
+
+      if (!process.waitFor(timeout, TimeUnit.SECONDS))
+      {
+        process.destroyForcibly().waitFor();
+        throw new IOException("metaeditor did not finish compiling " + relativePath + " within " + timeout + "s");
+      }
+
+      // metaeditor.exe returns the number of compiled files... we expect 1
+      return process.exitValue() == 1;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import de.sayayi.gradle.mql4.task.Mql4Dependency.Kind;
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Compile order of the selected mq4 files. A file importing the ex4 library produced by another selected file
+ *   ({@code #import "MyLib.ex4"}) depends on that file and is compiled after it.
+ * </p>
+ *
+ * <p>
+ *   The files are grouped into levels: level 0 contains all files which do not import a library compiled by the same
+ *   task, level {@code n} contains files importing libraries from levels {@code < n} only. Files within a level are
+ *   independent from each other and can be compiled in parallel. Files taking part in an import cycle can't be
+ *   ordered; they are put into an additional last level.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4CompileGraph
+{
+  private final Map<String,Set<String>> libraries = new LinkedHashMap<>();
+
+  @Getter
+  private final List<List<String>> levels = new ArrayList<>();
+
+  @Getter
+  private final Set<String> cyclic = new LinkedHashSet<>();
+
+
+  /**
+   * @param mql4Files  selected files, keyed by relative path
+   */
+  public Mql4CompileGraph(Map<String,Mql4Dependency> mql4Files)
+  {
+    final Map<Path,String> ex4Files = new HashMap<>();
+
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+      ex4Files.put(normalize(replaceExtension(mql4File.getValue().getFile(), "ex4")), mql4File.getKey());
+
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+    {
+      final Set<String> imported = new LinkedHashSet<>();
+
+      for(final File library: mql4File.getValue().getDependencies(Kind.IMPORT))
+      {
+        final String libraryKey = ex4Files.get(normalize(library));
+        if (libraryKey != null && !libraryKey.equals(mql4File.getKey()))
+          imported.add(libraryKey);
+      }
+
+      libraries.put(mql4File.getKey(), imported);
+    }
+
+    buildLevels();
+  }
+
+
+  private void buildLevels()
+  {
+    final Set<String> remaining = new LinkedHashSet<>(libraries.keySet());
+    final Set<String> compiled = new LinkedHashSet<>();
+
+    while(!remaining.isEmpty())
+    {
+      final List<String> level = new ArrayList<>();
+
+      for(final String key: remaining)
+        if (compiled.containsAll(libraries.get(key)))
+          level.add(key);
+
+      if (level.isEmpty())
+      {
+        // import cycle: no remaining file can be ordered
+        cyclic.addAll(remaining);
+        levels.add(new ArrayList<>(remaining));
+        break;
+      }
+
+      remaining.removeAll(level);
+      compiled.addAll(level);
+      levels.add(level);
+    }
+  }
+
+
+  /**
+   * Returns the selected files whose ex4 library is imported by the given file.
+   *
+   * @param key  relative path of the selected file
+   *
+   * @return  relative paths of imported libraries compiled by the same task, never {@code null}
+   */
+  public Set<String> getLibraries(String key)
+  {
+    final Set<String> imported = libraries.get(key);
+    return imported == null ? Collections.emptySet() : Collections.unmodifiableSet(imported);
+  }
+
+
+  /**
+   * Tells whether the given file is a library imported by at least one other selected file.
+   *
+   * @param key  relative path of the selected file
+   *
+   * @return  {@code true} if the file is imported by another selected file, {@code false} otherwise
+   */
+  public boolean isLibrary(String key) {
+    return libraries.values().stream().anyMatch(imported -> imported.contains(key));
+  }
+
+
+  private static Path normalize(File file) {
+    return file.getAbsoluteFile().toPath().normalize();
+  }
+
+
+  private static File replaceExtension(File f, String ext) {
+    return new File(f.getParent(), Mql4CompileAgent.replaceExtension(f.getName(), ext));
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+
+/**
+ * <p>
+ *   Tracks the progress of a compile batch: files compiled out of the total, the number of failures, the files being
+ *   compiled and the estimated time remaining.
+ * </p>
+ *
+ * <p>
+ *   The estimate is based on the recorded compile durations of the pending files. Files without a recorded duration
+ *   are estimated with the average duration of the files compiled so far. Each change is reported to a listener as a
+ *   status line, eg. {@code 12/400 compiled, 1 failed, compiling Experts/EA.mq4 (+3), ETA 4m 10s}.
+ * </p>
+ *
+ * This class is thread safe.
+ *
+ * @author Jeroen Gremmen
+ */
+public class Mql4CompileProgress
+{
+  private final Map<String,String> recordedDurations;
+  private final int parallelism;
+  private final Consumer<String> listener;
+
+  /** scheduled files which have not finished yet */
+  private final Set<String> pending = new LinkedHashSet<>();
+
+  /** files being compiled, in start order */
+  private final Set<String> compiling = new LinkedHashSet<>();
+
+  private int total;
+  private int done;
+  private int failed;
+  private long totalDuration;
+
+
+  /**
+   * @param recordedDurations  recorded compile durations in milliseconds, keyed by relative path
+   * @param parallelism        number of files compiled in parallel
+   * @param listener           receives the status line after each change
+   */
+  public Mql4CompileProgress(Map<String,String> recordedDurations, int parallelism, Consumer<String> listener)
+  {
+    this.recordedDurations = new LinkedHashMap<>(recordedDurations);
+    this.parallelism = Math.max(1, parallelism);
+    this.listener = listener;
+  }
+
+
+  /**
+   * Add a file to the batch.
+   */
+  public synchronized void schedule(String key)
+  {
+    if (pending.add(key))
+    {
+      total++;
+      listener.accept(getStatus());
+    }
+  }
+
+
+  /**
+   * Mark a scheduled file as being compiled.
+   */
+  public synchronized void started(String key)
+  {
+    compiling.add(key);
+    listener.accept(getStatus());
+  }
+
+
+  /**
+   * Mark a file as finished.
+   *
+   * @param key             relative path
+   * @param success         {@code true} if the file has been compiled successfully
+   * @param durationMillis  compile duration in milliseconds
+   */
+  public synchronized void finished(String key, boolean success, long durationMillis)
+  {
+    compiling.remove(key);
+
+    if (pending.remove(key))
+    {
+      done++;
+      totalDuration += durationMillis;
+
+      if (!success)
+        failed++;
+
+      listener.accept(getStatus());
+    }
+  }
+
+
+  public synchronized int getTotal() {
+    return total;
+  }
+
+
+  public synchronized int getDone() {
+    return done;
+  }
+
+
+  public synchronized int getFailed() {
+    return failed;
+  }
+
+
+  /**
+   * Returns the estimated remaining time in milliseconds.
+   *
+   * @return  remaining time or {@code -1} if it can't be estimated yet
+   */
+  public synchronized long getEstimatedRemainingMillis()
+  {
+    final long averageDuration = done == 0 ? -1 : totalDuration / done;
+    long remaining = 0;
+    long longest = 0;
+
+    for(final String key: pending)
+    {
+      long duration = getRecordedDuration(key);
+      if (duration < 0)
+      {
+        if (averageDuration < 0)
+          return -1;
+
+        duration = averageDuration;
+      }
+
+      remaining += duration;
+      longest = Math.max(longest, duration);
+    }
+
+    // parallel compilations can't finish before the longest pending file
+    return Math.max(remaining / parallelism, longest);
+  }
+
+
+  public synchronized String getStatus()
+  {
+    final StringBuilder status = new StringBuilder();
+
+    status.append(done).append('/').append(total).append(" compiled, ").append(failed).append(" failed");
+
+    if (!compiling.isEmpty())
+    {
+      status.append(", compiling ").append(compiling.iterator().next());
+      if (compiling.size() > 1)
+        status.append(" (+").append(compiling.size() - 1).append(')');
+    }
+
+    final long remaining = getEstimatedRemainingMillis();
+    if (remaining >= 0 && !pending.isEmpty())
+      status.append(", ETA ").append(formatDuration(remaining));
+
+    return status.toString();
+  }
+
+
+  private long getRecordedDuration(String key)
+  {
+    final String duration = recordedDurations.get(key);
+
+    if (duration != null)
+    {
+      try {
+        return Long.parseLong(duration);
+      } catch(final NumberFormatException ex) {
+        // ignore; no usable duration recorded
+      }
+    }
+
+    return -1;
+  }
+
+
+  static String formatDuration(long millis)
+  {
+    final long seconds = (millis + 999) / 1000;
+
+    if (seconds >= 3600)
+      return String.format("%dh %02dm", seconds / 3600, (seconds % 3600) / 60);
+
+    if (seconds >= 60)
+      return String.format("%dm %02ds", seconds / 60, seconds % 60);
+
+    return seconds + "s";
+  }
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+
+import groovy.json.JsonOutput;
+import lombok.Setter;
+
+
+/**
+ * <p>
+ *   Exports the dependency graph of the files selected by a compile task as JSON ({@code graph.json}) and in
+ *   graphviz format ({@code graph.dot}).
+ * </p>
+ *
+ * <p>
+ *   If changed files are given ({@code --changed}), the task determines the affected files, ie. the selected files
+ *   which would be rebuilt, and for each of them the chain of dependencies leading to a changed file. The result is
+ *   written to {@code affected.json} and printed on the console.
+ * </p>
+ *
+ * <p>
+ *   The analysis uses the directive cache of the compile task, so unchanged files are not read again.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public class Mql4DependenciesTask extends DefaultTask
+{
+  static final String GRAPH_JSON_FILE = "graph.json";
+  static final String GRAPH_DOT_FILE = "graph.dot";
+  static final String AFFECTED_FILE = "affected.json";
+
+  @Setter
+  private CompileMQL4Task compileTask;
+
+  private final List<String> changed = new ArrayList<>();
+
+  private File destinationDir = new File(getProject().getBuildDir(), "mql4/dependencies");
+
+
+  public Mql4DependenciesTask()
+  {
+    // the analysis is cheap; the result depends on the state of the source tree
+    getOutputs().upToDateWhen(task -> false);
+  }
+
+
+  @Option(option = "changed", description = "Changed file (relative to the project directory). Can be repeated.")
+  public void setChanged(List<String> changed)
+  {
+    this.changed.clear();
+    this.changed.addAll(changed);
+  }
+
+
+  @Internal
+  public List<String> getChanged() {
+    return changed;
+  }
+
+
+  @OutputDirectory
+  public File getDestinationDir() {
+    return destinationDir;
+  }
+
+
+  public void setDestinationDir(File destinationDir) {
+    this.destinationDir = destinationDir;
+  }
+
+
+  @TaskAction
+  public void exportDependencies() throws IOException
+  {
+    final long start = System.currentTimeMillis();
+    final Map<String,Mql4Dependency> mql4Files = compileTask.getInputFilesWithDependency();
+    final Path mql4Dir = compileTask.getMql4Dir().toPath().toAbsolutePath().normalize();
+    final List<File> includeDirs = compileTask.getIncludeDirs();
+
+    // file -> kind -> direct dependencies; collected over all selected files
+    final Map<String,Map<String,Set<String>>> graph = new TreeMap<>();
+    for(final Mql4Dependency root: mql4Files.values())
+      collect(mql4Dir, includeDirs, root, graph, new HashSet<>());
+
+    Files.createDirectories(destinationDir.toPath());
+    writeJson(mql4Files, graph);
+    writeDot(mql4Files, graph);
+
+    final Map<String,List<String>> affected = getAffected(mql4Dir, includeDirs, mql4Files);
+    if (affected != null)
+    {
+      final Map<String,Object> result = new LinkedHashMap<>();
+      result.put("changed", new TreeSet<>(changed));
+      result.put("affected", affected);
+
+      write(new File(destinationDir, AFFECTED_FILE), JsonOutput.prettyPrint(JsonOutput.toJson(result)));
+
+      getLogger().lifecycle("{} of {} file(s) affected by {} changed file(s)",
+          affected.size(), mql4Files.size(), changed.size());
+      affected.forEach((root, chain) -> getLogger().lifecycle("  {}: {}", root, String.join(" -> ", chain)));
+    }
+
+    getLogger().info("analyzed {} file(s) in {} ms", graph.size(), System.currentTimeMillis() - start);
+  }
+
+
+  private void collect(Path mql4Dir, List<File> includeDirs, Mql4Dependency dependency,
+                       Map<String,Map<String,Set<String>>> graph, Set<Mql4Dependency> visited)
+  {
+    final Map<String,Set<String>> edges =
+        graph.computeIfAbsent(getName(mql4Dir, includeDirs, dependency.getFile()), f -> new TreeMap<>());
+
+    for(final Mql4Dependency child: dependency.getChildren())
+    {
+      edges.computeIfAbsent(child.getKind().name().toLowerCase(Locale.ROOT), k -> new TreeSet<>())
+           .add(getName(mql4Dir, includeDirs, child.getFile()));
+
+      if (visited.add(child))
+        collect(mql4Dir, includeDirs, child, graph, visited);
+    }
+  }
+
+
+  /**
+   * Determine the selected files affected by the changed files, with the shortest dependency chain from the selected
+   * file to a changed file.
+   *
+   * @return  affected files with their dependency chain or {@code null} if no changed files are given
+   */
+  private Map<String,List<String>> getAffected(Path mql4Dir, List<File> includeDirs,
+                                               Map<String,Mql4Dependency> mql4Files)
+  {
+    if (changed.isEmpty())
+      return null;
+
+    final Set<Path> changedFiles = new HashSet<>();
+    for(final String file: changed)
+      changedFiles.add(getProject().file(file).toPath().toAbsolutePath().normalize());
+
+    final Map<String,List<String>> affected = new TreeMap<>();
+
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+    {
+      final List<File> chain = findChain(mql4File.getValue(), changedFiles);
+
+      if (chain != null)
+      {
+        final List<String> names = new ArrayList<>();
+        chain.forEach(f -> names.add(getName(mql4Dir, includeDirs, f)));
+
+        affected.put(mql4File.getKey().replace('\\', '/'), names);
+      }
+    }
+
+    return affected;
+  }
+
+
+  /**
+   * Breadth first search for the shortest chain of dependencies from the root to one of the changed files.
+   */
+  private List<File> findChain(Mql4Dependency root, Set<Path> changedFiles)
+  {
+    final Map<Mql4Dependency,Mql4Dependency> parents = new HashMap<>();
+    final Deque<Mql4Dependency> queue = new ArrayDeque<>();
+
+    parents.put(root, null);
+    queue.add(root);
+
+    while(!queue.isEmpty())
+    {
+      final Mql4Dependency dependency = queue.poll();
+
+      if (changedFiles.contains(dependency.getFile().toPath().toAbsolutePath().normalize()))
+      {
+        final List<File> chain = new ArrayList<>();
+
+        for(Mql4Dependency d = dependency; d != null; d = parents.get(d))
+          chain.add(d.getFile());
+
+        Collections.reverse(chain);
+        return chain;
+      }
+
+      for(final Mql4Dependency child: dependency.getChildren())
+        if (!parents.containsKey(child))
+        {
+          parents.put(child, dependency);
+          queue.add(child);
+        }
+    }
+
+    return null;
+  }
+
+
+  private void writeJson(Map<String,Mql4Dependency> mql4Files, Map<String,Map<String,Set<String>>> graph)
+      throws IOException
+  {
+    final Map<String,Object> json = new LinkedHashMap<>();
+    final Set<String> roots = new TreeSet<>();
+
+    mql4Files.keySet().forEach(f -> roots.add(f.replace('\\', '/')));
+    json.put("roots", roots);
+    json.put("files", graph);
+
+    write(new File(destinationDir, GRAPH_JSON_FILE), JsonOutput.prettyPrint(JsonOutput.toJson(json)));
+  }
+
+
+  private void writeDot(Map<String,Mql4Dependency> mql4Files, Map<String,Map<String,Set<String>>> graph)
+      throws IOException
+  {
+    try(Writer dot = Files.newBufferedWriter(new File(destinationDir, GRAPH_DOT_FILE).toPath(), UTF_8)) {
+      dot.append("digraph mql4 {\n")
+         .append("  rankdir=LR;\n");
+
+      for(final String root: new TreeSet<>(mql4Files.keySet()))
+        dot.append("  \"").append(escapeDot(root.replace('\\', '/'))).append("\" [shape=box];\n");
+
+      for(final Entry<String,Map<String,Set<String>>> file: graph.entrySet())
+        for(final Entry<String,Set<String>> kind: file.getValue().entrySet())
+          for(final String target: kind.getValue())
+          {
+            dot.append("  \"").append(escapeDot(file.getKey())).append("\" -> \"").append(escapeDot(target))
+               .append("\" [label=\"").append(kind.getKey()).append("\"];\n");
+          }
+
+      dot.append("}\n");
+    }
+  }
+
+
+  private void write(File file, String content)
+  {
+    try {
+      Files.write(file.toPath(), content.getBytes(UTF_8));
+    } catch(final IOException ex) {
+      throw new GradleException("failed to write " + file.getAbsolutePath(), ex);
+    }
+  }
+
+
+  /**
+   * Returns the name of a file in the graph: relative to the MQL4 directory, {@code Include/...} for files in an
+   * include directory or the absolute path otherwise.
+   */
+  private static String getName(Path mql4Dir, List<File> includeDirs, File file)
+  {
+    final Path path = file.toPath().toAbsolutePath().normalize();
+    final String name = Mql4StagingArea.getRelativePath(mql4Dir, includeDirs, path);
+
+    return name == null ? path.toString().replace('\\', '/') : name;
+  }
+
+
+  private static String escapeDot(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+}
@@ -15,11 +15,20 @@
  */
 package de.sayayi.gradle.mql4.task;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,126 +37,665 @@ import java.util.stream.Stream;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 
-import lombok.Getter;
-import lombok.Setter;
-import lombok.ToString;
+import de.sayayi.gradle.mql4.task.Mql4DirectiveCache.Directive;
 
 
 /**
+ * <p>
+ *   Dependency graph of an mq4 file. Each file (source, resource or library) is a node of the graph and refers to
+ *   its file by the id assigned by the {@link Mql4PathTable} of the resolver, so files shared by many root files are
+ *   stored once per analysis.
+ * </p>
+ *
+ * <p>
+ *   The dependencies of all nodes are kept in a single array, indexed by the offset of each node (compressed sparse
+ *   row format), and transitive dependencies are computed as a bit set of nodes. The root file and all instances
+ *   returned by {@link #getChildren()} are views of a node in the graph of the root file.
+ * </p>
+ *
  * @author Jeroen Gremmen
  */
-@ToString
 public final class Mql4Dependency
 {
   private static final Pattern INCLUDE_PATTERN =
       Pattern.compile("\\s*([<\"])([a-zA-Z0-9_/\\x5c\\x2e\\x2d]+)[>\"][\\x00-\\xff]*");
 
+  private static final Pattern STRING_PATTERN = Pattern.compile("\\s*\"([^\"]+)\".*");
+
+  private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("\\s*([A-Za-z_][A-Za-z0-9_]*)\\b.*");
+
   private static final Logger LOGGER = Logging.getLogger(Mql4Dependency.class);
 
+  private static final Kind[] KINDS = Kind.values();
+
+  /** node of the root file */
+  private static final int ROOT = 0;
+
 
-  @Getter @Setter
-  private File file;
+  private final Graph graph;
+  private final int node;
 
-  private final Set<Mql4Dependency> dependencies = new HashSet<>();
-  private boolean dirty;
+
+  private Mql4Dependency(Graph graph, int node)
+  {
+    this.graph = graph;
+    this.node = node;
+  }
 
 
-  private Mql4Dependency(File file) {
-    this.file = file;
+  public static Mql4Dependency from(File mql4Dir, File mql4File) {
+    return mql4Dir == null ? null : from(new Mql4IncludeResolver(mql4Dir, Collections.emptyList()), mql4File);
   }
 
 
-  public static Mql4Dependency from(File mql4Dir, File mql4File)
+  /**
+   * Parse the given file and its dependencies, using the given resolver. The resolver can be shared by all files
+   * of a single dependency analysis.
+   *
+   * @param resolver  include resolver
+   * @param mql4File  mq4 file
+   *
+   * @return  dependency tree or {@code null} if the file is not located in the MQL4 directory
+   */
+  public static Mql4Dependency from(Mql4IncludeResolver resolver, File mql4File)
   {
+    final File mql4Dir = resolver.getMql4Dir();
+
     // sanity checks
     if (mql4File == null || !mql4File.exists() ||
         mql4Dir == null || !mql4Dir.isDirectory() ||
         !mql4File.toPath().startsWith(mql4Dir.toPath()))
       return null;
 
-    final Mql4Dependency dependency = new Mql4Dependency(mql4File);
+    final ParseContext context = new ParseContext(resolver);
+
+    parseMql4File(context, context.addDependency(-1, mql4File, Kind.INCLUDE));
+
+    return new Mql4Dependency(context.toGraph(), ROOT);
+  }
+
+
+  public File getFile() {
+    return getFile(node);
+  }
 
-    dependency.parseMql4File(mql4Dir);
 
-    return dependency;
+  public Kind getKind() {
+    return KINDS[graph.kinds[node]];
   }
 
 
   public boolean isSelf(File file) {
-    return this.file.toPath().equals(file.toPath());
+    return graph.paths.find(file) == graph.files[node];
   }
 
 
   public void markDirty(File file)
   {
-    if (isSelf(file))
-      dirty = true;
-    else
-      dependencies.forEach(dep -> dep.markDirty(file));
+    final int id = graph.paths.find(file);
+    if (id < 0)
+      return;
+
+    for(int n = 0; n < graph.files.length; n++)
+      if (graph.files[n] == id)
+      {
+        // all nodes are reachable from the root file
+        if (node == ROOT || getClosure(true).get(n))
+        {
+          if (graph.dirty == null)
+            graph.dirty = new BitSet(graph.files.length);
+
+          graph.dirty.set(n);
+        }
+
+        break;
+      }
   }
 
 
   public boolean isDirty() {
-    return dirty || dependencies.stream().filter(Mql4Dependency::isDirty).findAny().isPresent();
+    return graph.dirty != null && (node == ROOT || graph.dirty.intersects(getClosure(true)));
+  }
+
+
+  /**
+   * Returns the direct dependencies of this file.
+   */
+  public Set<Mql4Dependency> getChildren()
+  {
+    final Set<Mql4Dependency> children = new LinkedHashSet<>();
+
+    for(int edge = graph.offsets[node], end = graph.offsets[node + 1]; edge < end; edge++)
+      children.add(new Mql4Dependency(graph, graph.targets[edge]));
+
+    return Collections.unmodifiableSet(children);
   }
 
 
   public Set<File> getDependencies()
   {
+    final BitSet closure = getClosure(false);
+    final Set<File> deps = new HashSet<>(closure.cardinality() * 4 / 3 + 1);
+
+    for(int n = closure.nextSetBit(0); n >= 0; n = closure.nextSetBit(n + 1))
+      deps.add(getFile(n));
+
+    return deps;
+  }
+
+
+  /**
+   * Returns all dependencies of the given kind, including transitive dependencies.
+   *
+   * @param kind  dependency kind
+   *
+   * @return  set of dependencies, never {@code null}
+   */
+  public Set<File> getDependencies(Kind kind)
+  {
+    final BitSet closure = getClosure(false);
     final Set<File> deps = new HashSet<>();
 
-    for(final Mql4Dependency dep: dependencies)
+    for(int n = closure.nextSetBit(0); n >= 0; n = closure.nextSetBit(n + 1))
+      if (graph.kinds[n] == kind.ordinal())
+        deps.add(getFile(n));
+
+    return deps;
+  }
+
+
+  /**
+   * Returns all included files and resources which do not exist, including transitive dependencies. Missing ex4
+   * libraries are not reported, as they are only required at runtime.
+   *
+   * @return  missing files with their dependency kind, never {@code null}
+   */
+  public Map<File,Kind> getMissingDependencies()
+  {
+    final BitSet closure = getClosure(false);
+    final Map<File,Kind> missing = new LinkedHashMap<>();
+
+    for(int n = closure.nextSetBit(0); n >= 0; n = closure.nextSetBit(n + 1))
     {
-      deps.add(dep.file);
-      deps.addAll(dep.getDependencies());
+      final File file = getFile(n);
+      final Kind kind = KINDS[graph.kinds[n]];
+
+      if (kind != Kind.IMPORT && !file.isFile())
+        missing.put(file, kind);
     }
 
-    return deps;
+    return missing;
   }
 
 
-  public Stream<File> streamDependenciesWithSelf()
+  /**
+   * Returns this file and all included files which exist but could not be read.
+   *
+   * @return  set of unreadable files, never {@code null}
+   */
+  public Set<File> getUnreadableFiles()
   {
-    final Set<File> deps = new HashSet<>();
+    final Set<File> files = new HashSet<>();
+
+    if (graph.unreadable != null)
+    {
+      final BitSet unreadable = getClosure(true);
+      unreadable.and(graph.unreadable);
+
+      for(int n = unreadable.nextSetBit(0); n >= 0; n = unreadable.nextSetBit(n + 1))
+        files.add(getFile(n));
+    }
+
+    return files;
+  }
+
+
+  /**
+   * Returns the include cycles found while parsing this file. Each cycle starts and ends with the same file.
+   *
+   * @return  list of include cycles, never {@code null}
+   */
+  public List<List<File>> getIncludeCycles() {
+    return node == ROOT ? graph.cycles : Collections.emptyList();
+  }
+
+
+  public Stream<File> streamDependenciesWithSelf() {
+    return getClosure(true).stream().mapToObj(this::getFile);
+  }
+
 
-    deps.add(file);
-    deps.addAll(getDependencies());
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+      return true;
+    if (!(o instanceof Mql4Dependency))
+      return false;
+
+    final Mql4Dependency that = (Mql4Dependency)o;
+    return graph == that.graph && node == that.node;
+  }
+
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(graph) * 31 + node;
+  }
 
-    return deps.stream();
+
+  @Override
+  public String toString() {
+    return "Mql4Dependency(file=" + getFile() + ", kind=" + getKind() + ")";
+  }
+
+
+  private File getFile(int n) {
+    return graph.paths.getFile(graph.files[n]);
   }
 
 
-  private void parseMql4File(File mql4Dir)
+  /**
+   * Returns the nodes reachable from this node.
+   *
+   * @param withSelf  {@code true} to include this node, {@code false} to include it only if it is part of a cycle
+   *
+   * @return  bit set of nodes
+   */
+  private BitSet getClosure(boolean withSelf)
   {
-    final Set<File> collectedIncludes = new HashSet<>();
+    final int nodes = graph.files.length;
+    final BitSet closure = new BitSet(nodes);
+
+    if (node == ROOT)
+    {
+      // all nodes are reachable from the root file
+      closure.set(0, nodes);
 
-    try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"))) {
-      String line;
+      if (!withSelf && !isTarget(ROOT))
+        closure.clear(ROOT);
+    }
+    else
+    {
+      // each node is pushed at most once
+      final int[] stack = new int[nodes];
+      int top = 0;
 
-      while((line = reader.readLine()) != null)
+      stack[top++] = node;
+
+      while(top > 0)
       {
-        final int idx = line.indexOf("#include");
-        if (idx >= 0)
+        final int n = stack[--top];
+
+        for(int edge = graph.offsets[n], end = graph.offsets[n + 1]; edge < end; edge++)
         {
-          final Matcher matcher = INCLUDE_PATTERN.matcher(line.substring(idx + 8));
+          final int target = graph.targets[edge];
 
-          if (matcher.matches())
+          if (!closure.get(target))
           {
-            final File includeFile = ("<".equals(matcher.group(1)))
-              ? new File(new File(mql4Dir, "Include"), matcher.group(2))
-              : new File(file.getParentFile(), matcher.group(2));
-            collectedIncludes.add(includeFile);
+            closure.set(target);
+            stack[top++] = target;
           }
         }
       }
+
+      if (withSelf)
+        closure.set(node);
+    }
+
+    return closure;
+  }
+
+
+  private boolean isTarget(int n)
+  {
+    for(final int target: graph.targets)
+      if (target == n)
+        return true;
+
+    return false;
+  }
+
+
+  /**
+   * <p>
+   *   Parse the preprocessor directives of a file. Includes are parsed in place, so macros defined in the root file
+   *   or in an earlier include are visible in subsequent includes, just like the MQL4 preprocessor does.
+   * </p>
+   *
+   * <p>
+   *   Includes inside inactive {@code #ifdef}/{@code #ifndef}/{@code #else} blocks are not dependencies, as they can
+   *   never affect the compiled file. Each file is parsed once per root file, as MQL4 includes a file only once.
+   * </p>
+   */
+  private static void parseMql4File(ParseContext context, int node)
+  {
+    final File file = context.getFile(node);
+
+    context.parsed.set(node);
+    context.stack.addLast(node);
+
+    // each entry represents an open conditional block: true = active, false = inactive
+    final Deque<Boolean> conditionals = new ArrayDeque<>();
+
+    try {
+      for(final Directive directive: context.resolver.getDirectives(file))
+      {
+        final boolean active = !conditionals.contains(Boolean.FALSE);
+        final String argument = directive.getArgument();
+
+        switch(directive.getName())
+        {
+          case "define":
+            if (active)
+              getIdentifier(argument).ifPresent(context.defines::add);
+            break;
+
+          case "undef":
+            if (active)
+              getIdentifier(argument).ifPresent(context.defines::remove);
+            break;
+
+          case "ifdef":
+            conditionals.push(getIdentifier(argument).map(context.defines::contains).orElse(false));
+            break;
+
+          case "ifndef":
+            conditionals.push(!getIdentifier(argument).map(context.defines::contains).orElse(false));
+            break;
+
+          case "else":
+            if (!conditionals.isEmpty())
+              conditionals.push(!conditionals.pop());
+            break;
+
+          case "endif":
+            if (!conditionals.isEmpty())
+              conditionals.pop();
+            break;
+
+          case "include":
+            if (active)
+              parseInclude(context, node, argument);
+            break;
+
+          case "resource":
+            if (active)
+              parseResource(context, node, argument);
+            break;
+
+          case "import":
+            if (active)
+              parseImport(context, node, argument);
+            break;
+        }
+      }
     } catch(final Exception ex) {
       LOGGER.error("failed to read file {}", file.getAbsolutePath(), ex);
+      context.unreadable.set(node);
+    } finally {
+      context.stack.removeLast();
+    }
+  }
+
+
+  private static void parseInclude(ParseContext context, int node, String argument)
+  {
+    final Matcher matcher = INCLUDE_PATTERN.matcher(argument);
+    if (!matcher.matches())
+      return;
+
+    final File includeFile = ("<".equals(matcher.group(1)))
+        ? context.resolver.resolveInclude(matcher.group(2))
+        : new File(context.getFile(node).getParentFile(), matcher.group(2));
+    final int include = context.addDependency(node, includeFile, Kind.INCLUDE);
+
+    if (!context.resolver.exists(includeFile))
+      return;
+
+    if (!context.parsed.get(include))
+      parseMql4File(context, include);
+    else
+    {
+      // the file is included once only; an include of a file currently being parsed closes a cycle
+      final List<File> cycle = new ArrayList<>();
+
+      for(final int parsing: context.stack)
+        if (!cycle.isEmpty() || parsing == include)
+          cycle.add(context.getFile(parsing));
+
+      if (!cycle.isEmpty())
+      {
+        cycle.add(includeFile);
+        context.cycles.add(cycle);
+      }
     }
+  }
+
+
+  /**
+   * A resource path starting with a backslash is relative to the MQL4 directory; otherwise it is relative to the
+   * directory of the file containing the directive.
+   */
+  private static void parseResource(ParseContext context, int node, String argument)
+  {
+    final Matcher matcher = STRING_PATTERN.matcher(argument);
+    if (!matcher.matches())
+      return;
+
+    // string literal: "\\Images\\logo.bmp" -> /Images/logo.bmp
+    final String path = matcher.group(1).replace("\\\\", "/").replace('\\', '/');
+    final File resourceFile = path.startsWith("/")
+        ? new File(context.resolver.getMql4Dir(), path.substring(1))
+        : new File(context.getFile(node).getParentFile(), path);
+
+    context.addDependency(node, resourceFile, Kind.RESOURCE);
+  }
+
+
+  /**
+   * <p>
+   *   Imported libraries are searched in the directory of the file containing the directive and in
+   *   {@code MQL4/Libraries}. A library without extension is an ex4 library.
+   * </p>
+   *
+   * <p>
+   *   DLLs which can't be found are assumed to be system libraries and are ignored. An ex4 library which can't be
+   *   found is registered as a (missing) dependency in {@code MQL4/Libraries}, so its creation will be noticed.
+   * </p>
+   */
+  private static void parseImport(ParseContext context, int node, String argument)
+  {
+    final Matcher matcher = STRING_PATTERN.matcher(argument);
+    if (!matcher.matches())
+      return;  // end of import block
+
+    String library = matcher.group(1).replace("\\\\", "/").replace('\\', '/');
+    final String libraryName = library.substring(library.lastIndexOf('/') + 1);
+    if (libraryName.indexOf('.') < 0)
+      library = library + ".ex4";
+
+    final File librariesDir = new File(context.resolver.getMql4Dir(), "Libraries");
+    File libraryFile = new File(context.getFile(node).getParentFile(), library);
+    if (!context.resolver.exists(libraryFile))
+      libraryFile = new File(librariesDir, library);
+
+    if (context.resolver.exists(libraryFile) || library.toLowerCase().endsWith(".ex4"))
+      context.addDependency(node, libraryFile, Kind.IMPORT);
+  }
+
+
+  private static Optional<String> getIdentifier(String argument)
+  {
+    final Matcher matcher = IDENTIFIER_PATTERN.matcher(argument);
+    return matcher.matches() ? Optional.of(matcher.group(1)) : Optional.empty();
+  }
+
+
+
+
+  public enum Kind
+  {
+    /** mq4/mqh source file; root files are of this kind as well */
+    INCLUDE,
+
+    /** resource file embedded using {@code #resource} */
+    RESOURCE,
+
+    /** library imported using {@code #import} */
+    IMPORT
+  }
+
+
+
+
+  /**
+   * Immutable dependency graph of a root file, except for the dirty flags. Node {@code 0} is the root file.
+   */
+  private static final class Graph
+  {
+    private final Mql4PathTable paths;
+
+    /** file id of each node */
+    private final int[] files;
+
+    /** kind ordinal of each node */
+    private final byte[] kinds;
+
+    /** index of the first dependency of each node in {@code targets}; {@code nodes + 1} entries */
+    private final int[] offsets;
+
+    /** dependencies of all nodes, as node index */
+    private final int[] targets;
+
+    /** unreadable nodes or {@code null} if all files could be read */
+    private final BitSet unreadable;
 
-    for(final File includeFile: collectedIncludes)
-      if (includeFile.exists())
-        dependencies.add(from(mql4Dir, includeFile));
-      else
-        dependencies.add(new Mql4Dependency(includeFile));
+    private final List<List<File>> cycles;
+
+    /** nodes marked dirty or {@code null} if no node is dirty */
+    private BitSet dirty;
+
+
+    private Graph(Mql4PathTable paths, int[] files, byte[] kinds, int[] offsets, int[] targets, BitSet unreadable,
+                  List<List<File>> cycles)
+    {
+      this.paths = paths;
+      this.files = files;
+      this.kinds = kinds;
+      this.offsets = offsets;
+      this.targets = targets;
+      this.unreadable = unreadable;
+      this.cycles = cycles;
+    }
+  }
+
+
+
+
+  private static final class ParseContext
+  {
+    private final Mql4IncludeResolver resolver;
+    private final Mql4PathTable paths;
+
+    /** macros defined so far */
+    private final Set<String> defines = new HashSet<>();
+
+    /** file id -> node */
+    private final Map<Integer,Integer> nodes = new HashMap<>();
+
+    private int[] files = new int[16];
+    private byte[] kinds = new byte[16];
+    private int nodeCount;
+
+    private int[] edgeSources = new int[16];
+    private int[] edgeTargets = new int[16];
+    private int edgeCount;
+
+    /** nodes parsed so far */
+    private final BitSet parsed = new BitSet();
+
+    private final BitSet unreadable = new BitSet();
+
+    /** nodes currently being parsed, root file first */
+    private final Deque<Integer> stack = new ArrayDeque<>();
+
+    /** include cycles found so far */
+    private final List<List<File>> cycles = new ArrayList<>();
+
+
+    private ParseContext(Mql4IncludeResolver resolver)
+    {
+      this.resolver = resolver;
+      this.paths = resolver.getPaths();
+    }
+
+
+    private File getFile(int node) {
+      return paths.getFile(files[node]);
+    }
+
+
+    /**
+     * Add a dependency of the given node.
+     *
+     * @param source  node depending on the file or {@code -1} for the root file
+     * @param file    file
+     * @param kind    dependency kind; if the file is already part of the graph, its kind is not changed
+     *
+     * @return  node of the file
+     */
+    private int addDependency(int source, File file, Kind kind)
+    {
+      final int id = paths.intern(file);
+      Integer node = nodes.get(id);
+
+      if (node == null)
+      {
+        if (nodeCount == files.length)
+        {
+          files = Arrays.copyOf(files, nodeCount * 2);
+          kinds = Arrays.copyOf(kinds, nodeCount * 2);
+        }
+
+        files[nodeCount] = id;
+        kinds[nodeCount] = (byte)kind.ordinal();
+        nodes.put(id, node = nodeCount++);
+      }
+
+      if (source >= 0)
+      {
+        if (edgeCount == edgeSources.length)
+        {
+          edgeSources = Arrays.copyOf(edgeSources, edgeCount * 2);
+          edgeTargets = Arrays.copyOf(edgeTargets, edgeCount * 2);
+        }
+
+        edgeSources[edgeCount] = source;
+        edgeTargets[edgeCount++] = node;
+      }
+
+      return node;
+    }
+
+
+    private Graph toGraph()
+    {
+      // counting sort of the edges by source node, keeping the order of the directives
+      final int[] offsets = new int[nodeCount + 1];
+      for(int edge = 0; edge < edgeCount; edge++)
+        offsets[edgeSources[edge] + 1]++;
+      for(int n = 0; n < nodeCount; n++)
+        offsets[n + 1] += offsets[n];
+
+      final int[] next = Arrays.copyOf(offsets, nodeCount);
+      final int[] targets = new int[edgeCount];
+      for(int edge = 0; edge < edgeCount; edge++)
+        targets[next[edgeSources[edge]]++] = edgeTargets[edge];
+
+      return new Graph(paths, Arrays.copyOf(files, nodeCount), Arrays.copyOf(kinds, nodeCount), offsets, targets,
+          unreadable.isEmpty() ? null : unreadable,
+          cycles.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(cycles));
+    }
   }
 }
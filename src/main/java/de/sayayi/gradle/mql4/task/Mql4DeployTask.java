@@ -0,0 +1,176 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+import lombok.Setter;
+
+
+/**
+ * <p>
+ *   Deploys the ex4 files produced by a compile task into one or more terminal MQL4 directories, eg.
+ *   {@code <terminal data folder>/MQL4}. Only files with a different content are copied and files deployed earlier,
+ *   which are no longer produced by the compile task, are deleted. See {@link Mql4Deployment}.
+ * </p>
+ *
+ * <p>
+ *   The target directories are updated concurrently.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public class Mql4DeployTask extends DefaultTask
+{
+  static final String CHECKSUMS_FILE = "checksums.properties";
+  static final String TARGETS_DIR = "targets";
+
+  @Setter
+  private CompileMQL4Task compileTask;
+
+  private final ConfigurableFileCollection targetDirs = getProject().files();
+
+
+  public Mql4DeployTask()
+  {
+    // the target directories are not owned by the build and may be changed by the terminals
+    getOutputs().upToDateWhen(task -> false);
+  }
+
+
+  @InputFiles
+  public FileCollection getEx4Files() {
+    return compileTask.getEx4Files();
+  }
+
+
+  @Internal
+  public FileCollection getTargetDirs() {
+    return targetDirs;
+  }
+
+
+  /**
+   * Add terminal MQL4 directories to deploy to.
+   *
+   * @param dirs  MQL4 directories, evaluated as per {@link org.gradle.api.Project#files(Object...)}
+   */
+  public void into(Object... dirs) {
+    targetDirs.from(dirs);
+  }
+
+
+  /**
+   * Returns the directory containing the checksums of the ex4 files and the deployment state of each target.
+   */
+  @Internal
+  public File getStateDir() {
+    return new File(getProject().getBuildDir(), "mql4/" + getName());
+  }
+
+
+  /**
+   * Returns the file recording the files deployed to the given target directory.
+   */
+  protected File getDeploymentStateFile(File targetDir)
+  {
+    return new File(getStateDir(), TARGETS_DIR + '/' +
+        Integer.toHexString(targetDir.getAbsolutePath().hashCode()) + ".properties");
+  }
+
+
+  @TaskAction
+  public void deploy() throws IOException
+  {
+    if (targetDirs.isEmpty())
+    {
+      getLogger().warn("no target directories configured for {}", getPath());
+      return;
+    }
+
+    // relative path -> ex4 file
+    final Map<String,File> files = new TreeMap<>();
+
+    for(final String relativeMq4Path: compileTask.getInputFilesWithDependency().keySet())
+    {
+      final File ex4File = compileTask.getEx4File(relativeMq4Path);
+
+      if (ex4File.isFile())
+        files.put(compileTask.replaceExtension(relativeMq4Path, "ex4").replace('\\', '/'), ex4File);
+      else
+        getLogger().warn("{} has not been compiled; not deployed", ex4File);
+    }
+
+    final Map<String,String> checksums = Checksums.checksums(files, new File(getStateDir(), CHECKSUMS_FILE));
+    final ExecutorService executor = Executors.newFixedThreadPool(targetDirs.getFiles().size());
+    final Map<File,Future<Mql4Deployment>> deployments = new LinkedHashMap<>();
+    final List<String> failedTargets = new ArrayList<>();
+
+    try {
+      for(final File targetDir: targetDirs)
+      {
+        deployments.put(targetDir, executor.submit(() -> {
+          final Mql4Deployment deployment = new Mql4Deployment(targetDir, getDeploymentStateFile(targetDir));
+          deployment.sync(files, checksums);
+
+          return deployment;
+        }));
+      }
+
+      for(final Entry<File,Future<Mql4Deployment>> deployment: deployments.entrySet())
+      {
+        final File targetDir = deployment.getKey();
+
+        try {
+          final Mql4Deployment result = deployment.getValue().get();
+
+          getLogger().lifecycle("{}: {} copied, {} up-to-date, {} deleted", targetDir,
+              result.getCopied(), result.getUnchanged(), result.getDeleted());
+        } catch(final ExecutionException ex) {
+          getLogger().error("failed to deploy to {}: {}", targetDir, ex.getCause().getMessage());
+          failedTargets.add(targetDir.getAbsolutePath());
+        }
+      }
+    } catch(final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new GradleException("mql4 deployment interrupted", ex);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (!failedTargets.isEmpty())
+      throw new GradleException("failed to deploy to " + String.join(", ", failedTargets));
+  }
+}
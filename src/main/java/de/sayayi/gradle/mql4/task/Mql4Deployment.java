@@ -0,0 +1,170 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Deploys ex4 files into a terminal's MQL4 directory. A file is only copied if its content (SHA-256) differs from
+ *   the deployed file, so a running terminal does not reload unchanged indicators and expert advisors.
+ * </p>
+ *
+ * <p>
+ *   The deployed files are recorded in a state file, together with the size, modification time and checksum of the
+ *   deployed copy. Deployed files which are no longer part of the deployment are deleted, unless they have been
+ *   changed in the terminal directory in the meantime. Files not deployed by this class are never touched.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4Deployment
+{
+  private final File targetDir;
+  private final File stateFile;
+
+  /** number of files copied */
+  @Getter
+  private int copied;
+
+  /** number of files which were up-to-date */
+  @Getter
+  private int unchanged;
+
+  /** number of orphaned files deleted */
+  @Getter
+  private int deleted;
+
+
+  /**
+   * @param targetDir  terminal MQL4 directory
+   * @param stateFile  file recording the deployed files
+   */
+  public Mql4Deployment(File targetDir, File stateFile)
+  {
+    this.targetDir = targetDir;
+    this.stateFile = stateFile;
+  }
+
+
+  /**
+   * Bring the target directory up to date with the given files.
+   *
+   * @param files      relative path (eg. {@code Indicators/Test.ex4}) -> file to deploy
+   * @param checksums  relative path -> checksum of the file to deploy
+   *
+   * @throws IOException  if a file could not be copied or deleted
+   */
+  public void sync(Map<String,File> files, Map<String,String> checksums) throws IOException
+  {
+    if (!targetDir.isDirectory())
+      throw new IOException(targetDir.getAbsolutePath() + " is not a directory");
+
+    // relative path -> size:mtime:checksum of the deployed file
+    final Map<String,String> deployed = StateFile.load(stateFile);
+
+    try {
+      for(final Entry<String,File> file: files.entrySet())
+      {
+        final String relativePath = file.getKey();
+        final File target = new File(targetDir, relativePath);
+        final String checksum = checksums.get(relativePath);
+
+        if (checksum.equals(getChecksum(target, deployed.get(relativePath))))
+          unchanged++;
+        else
+        {
+          copy(file.getValue(), target);
+          copied++;
+        }
+
+        deployed.put(relativePath, Checksums.getStamp(target) + checksum);
+      }
+
+      for(final String relativePath: new ArrayList<>(deployed.keySet()))
+        if (!files.containsKey(relativePath))
+        {
+          final File target = new File(targetDir, relativePath);
+          final String state = deployed.remove(relativePath);
+
+          // a file changed in the terminal directory is no longer ours
+          if (target.isFile() && state.endsWith(':' + getChecksum(target, state)))
+          {
+            Files.delete(target.toPath());
+            deleted++;
+          }
+        }
+    } finally {
+      StateFile.store(stateFile, deployed);
+    }
+  }
+
+
+  /**
+   * Returns the checksum of the given file. The checksum from the state is used if the size and modification time of
+   * the file match the state.
+   *
+   * @return  checksum or {@code null} if the file does not exist
+   */
+  private static String getChecksum(File file, String state) throws IOException
+  {
+    if (!file.isFile())
+      return null;
+
+    final String stamp = Checksums.getStamp(file);
+
+    return state != null && state.startsWith(stamp)
+        ? state.substring(stamp.length()) : Checksums.checksum(file);
+  }
+
+
+  /**
+   * Copy the file to a temporary file in the target directory first, so the terminal never sees a partial file.
+   */
+  private static void copy(File file, File target) throws IOException
+  {
+    final Path targetPath = target.toPath();
+
+    Files.createDirectories(targetPath.getParent());
+
+    final Path tmpFile = Files.createTempFile(targetPath.getParent(), target.getName(), ".tmp");
+
+    try {
+      Files.copy(file.toPath(), tmpFile, REPLACE_EXISTING);
+
+      try {
+        Files.move(tmpFile, targetPath, REPLACE_EXISTING, ATOMIC_MOVE);
+      } catch(final AtomicMoveNotSupportedException ex) {
+        Files.move(tmpFile, targetPath, REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * Single error or warning reported by metaeditor.
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString
+public final class Mql4Diagnostic
+{
+  /** file, relative to the MQL4 directory if possible */
+  @Getter
+  private final String file;
+
+  @Getter
+  private final int line;
+
+  @Getter
+  private final int column;
+
+  /** {@code error} or {@code warning} */
+  @Getter
+  private final String severity;
+
+  /** metaeditor error code or {@code null} */
+  @Getter
+  private final String code;
+
+  @Getter
+  private final String message;
+
+
+  public Mql4Diagnostic(String file, int line, int column, String severity, String code, String message)
+  {
+    this.file = file;
+    this.line = line;
+    this.column = column;
+    this.severity = severity;
+    this.code = code;
+    this.message = message;
+  }
+
+
+  public boolean isError() {
+    return "error".equals(severity);
+  }
+
+
+  /**
+   * Returns the diagnostic in the common {@code file:line:column: severity code: message} format, which is understood
+   * by most editors and IDEs.
+   */
+  public String format() {
+    return file + ':' + line + ':' + column + ": " + severity + (code == null ? "" : " " + code) + ": " + message;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * <p>
+ *   Diagnostics parsed from a metaeditor log file. Metaeditor reports each problem on a separate line, eg.
+ *   {@code C:\MT4\MQL4\Experts\EA.mq4(12,5) : error 256: 'x' - undeclared identifier}, and finishes the log with a
+ *   summary line, eg. {@code Result: 1 error(s), 0 warning(s)}.
+ * </p>
+ *
+ * <p>
+ *   File names are reported relative to the MQL4 directory, if possible.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString
+public final class Mql4Diagnostics
+{
+  private static final Pattern DIAGNOSTIC_PATTERN = Pattern.compile(
+      "\\s*(.+?)\\((\\d+),(\\d+)\\)\\s*:\\s*(error|warning)(?:\\s+(\\d+))?\\s*:\\s*(.*)", Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern RESULT_PATTERN = Pattern.compile(
+      "\\s*result:?\\s*(\\d+)\\s+errors?(?:\\(s\\))?\\s*,\\s*(\\d+)\\s+warnings?.*", Pattern.CASE_INSENSITIVE);
+
+  @Getter
+  private final List<Mql4Diagnostic> diagnostics;
+
+  @Getter
+  private final int errors;
+
+  @Getter
+  private final int warnings;
+
+  /** {@code true} if the log contains the result summary of metaeditor */
+  @Getter
+  private final boolean complete;
+
+
+  private Mql4Diagnostics(List<Mql4Diagnostic> diagnostics, int errors, int warnings, boolean complete)
+  {
+    this.diagnostics = Collections.unmodifiableList(diagnostics);
+    this.errors = errors;
+    this.warnings = warnings;
+    this.complete = complete;
+  }
+
+
+  /**
+   * Parse a metaeditor log.
+   *
+   * @param relativeMq4Path  path of the compiled mq4 file, relative to the MQL4 directory
+   * @param log              lines of the log file
+   *
+   * @return  parsed diagnostics, never {@code null}
+   */
+  public static Mql4Diagnostics parse(String relativeMq4Path, List<String> log)
+  {
+    final List<Mql4Diagnostic> diagnostics = new ArrayList<>();
+    int errors = 0;
+    int warnings = 0;
+    boolean complete = false;
+
+    for(final String line: log)
+    {
+      final Matcher diagnosticMatcher = DIAGNOSTIC_PATTERN.matcher(line);
+
+      if (diagnosticMatcher.matches())
+      {
+        final Mql4Diagnostic diagnostic = new Mql4Diagnostic(
+            relativize(relativeMq4Path, diagnosticMatcher.group(1)),
+            Integer.parseInt(diagnosticMatcher.group(2)),
+            Integer.parseInt(diagnosticMatcher.group(3)),
+            diagnosticMatcher.group(4).toLowerCase(Locale.ROOT),
+            diagnosticMatcher.group(5),
+            diagnosticMatcher.group(6).trim());
+
+        diagnostics.add(diagnostic);
+
+        if (diagnostic.isError())
+          errors++;
+        else
+          warnings++;
+
+        continue;
+      }
+
+      final Matcher resultMatcher = RESULT_PATTERN.matcher(line);
+      if (resultMatcher.matches())
+      {
+        // the summary is authoritative; some problems are reported without a location
+        errors = Math.max(errors, Integer.parseInt(resultMatcher.group(1)));
+        warnings = Math.max(warnings, Integer.parseInt(resultMatcher.group(2)));
+        complete = true;
+      }
+    }
+
+    return new Mql4Diagnostics(diagnostics, errors, warnings, complete);
+  }
+
+
+  /**
+   * Tells whether metaeditor has finished without errors.
+   */
+  public boolean isSuccessful() {
+    return complete && errors == 0;
+  }
+
+
+  private static String relativize(String relativeMq4Path, String file)
+  {
+    final String path = file.trim().replace('\\', '/');
+    final String lowerPath = path.toLowerCase(Locale.ROOT);
+    final String mq4Path = relativeMq4Path.replace('\\', '/');
+    final String lowerMq4Path = mq4Path.toLowerCase(Locale.ROOT);
+
+    if (lowerPath.equals(lowerMq4Path) || lowerPath.endsWith('/' + lowerMq4Path))
+      return mq4Path;
+
+    final int mql4Idx = lowerPath.lastIndexOf("/mql4/");
+    return mql4Idx < 0 ? path : path.substring(mql4Idx + 6);
+  }
+}
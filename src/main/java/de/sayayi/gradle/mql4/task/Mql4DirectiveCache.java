@@ -0,0 +1,278 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+
+/**
+ * <p>
+ *   Persistent cache of the preprocessor directives of mq4/mqh files. The dependency analysis only depends on the
+ *   directives of a file, so a file which has not changed (same size and modification time) doesn't need to be read
+ *   again.
+ * </p>
+ *
+ * <p>
+ *   Only entries of files used since the cache has been loaded are stored, so deleted files do not accumulate.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4DirectiveCache
+{
+  private static final Logger LOGGER = Logging.getLogger(Mql4DirectiveCache.class);
+
+  private static final int VERSION = 1;
+
+  private static final Pattern DIRECTIVE_PATTERN = Pattern.compile("\\s*#\\s*([a-z]+)\\b(.*)");
+
+  /** directives relevant for the dependency analysis */
+  private static final Set<String> DIRECTIVES = new HashSet<>(
+      Arrays.asList("define", "undef", "ifdef", "ifndef", "else", "endif", "include", "resource", "import"));
+
+  private final File cacheFile;
+  private final Map<String,CacheEntry> entries = new HashMap<>();
+  private final Set<String> used = new HashSet<>();
+  private boolean modified;
+
+
+  private Mql4DirectiveCache(File cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+
+  /**
+   * Load the cache from the given file. A missing or unreadable cache file results in an empty cache.
+   *
+   * @param cacheFile  cache file
+   *
+   * @return  directive cache, never {@code null}
+   */
+  public static Mql4DirectiveCache load(File cacheFile)
+  {
+    final Mql4DirectiveCache cache = new Mql4DirectiveCache(cacheFile);
+
+    if (cacheFile.isFile())
+    {
+      try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+        if (in.readInt() == VERSION)
+        {
+          for(int files = in.readInt(); files > 0; files--)
+          {
+            final String path = in.readUTF();
+            final long length = in.readLong();
+            final long lastModified = in.readLong();
+            final List<Directive> directives = new ArrayList<>();
+
+            for(int n = in.readInt(); n > 0; n--)
+              directives.add(new Directive(in.readUTF(), in.readUTF()));
+
+            cache.entries.put(path, new CacheEntry(length, lastModified, directives));
+          }
+        }
+      } catch(final IOException ex) {
+        LOGGER.debug("failed to read directive cache {}", cacheFile, ex);
+        cache.entries.clear();
+      }
+    }
+
+    return cache;
+  }
+
+
+  /**
+   * Returns the directives of the given file, either from the cache or by reading the file.
+   *
+   * @param file  mq4/mqh file
+   *
+   * @return  directives in order of appearance
+   *
+   * @throws IOException  if the file could not be read
+   */
+  public synchronized List<Directive> getDirectives(File file) throws IOException
+  {
+    final String path = file.toPath().toAbsolutePath().normalize().toString();
+    final long length = file.length();
+    final long lastModified = file.lastModified();
+    final CacheEntry entry = entries.get(path);
+
+    used.add(path);
+
+    if (entry != null && entry.length == length && entry.lastModified == lastModified)
+      return entry.directives;
+
+    final List<Directive> directives = readDirectives(file);
+
+    entries.put(path, new CacheEntry(length, lastModified, directives));
+    modified = true;
+
+    return directives;
+  }
+
+
+  /**
+   * Store the cache, if it has been modified or contains entries of files which haven't been used.
+   */
+  public synchronized void store()
+  {
+    if (entries.keySet().retainAll(used))
+      modified = true;
+
+    if (!modified)
+      return;
+
+    final Path path = cacheFile.toPath();
+
+    try {
+      Files.createDirectories(path.getParent());
+
+      final Path tmpFile = Files.createTempFile(path.getParent(), cacheFile.getName(), ".tmp");
+
+      try {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+          out.writeInt(VERSION);
+          out.writeInt(entries.size());
+
+          for(final Entry<String,CacheEntry> entry: entries.entrySet())
+          {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().length);
+            out.writeLong(entry.getValue().lastModified);
+            out.writeInt(entry.getValue().directives.size());
+
+            for(final Directive directive: entry.getValue().directives)
+            {
+              out.writeUTF(directive.getName());
+              out.writeUTF(directive.getArgument());
+            }
+          }
+        }
+
+        Files.move(tmpFile, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        modified = false;
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+    } catch(final IOException ex) {
+      LOGGER.warn("failed to write directive cache {}", cacheFile, ex);
+    }
+  }
+
+
+  /**
+   * Read the directives of the given file, without using a cache.
+   *
+   * @param file  mq4/mqh file
+   *
+   * @return  directives in order of appearance
+   *
+   * @throws IOException  if the file could not be read
+   */
+  public static List<Directive> readDirectives(File file) throws IOException
+  {
+    final List<Directive> directives = new ArrayList<>();
+
+    try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String line;
+
+      while((line = reader.readLine()) != null)
+      {
+        final Matcher directive = DIRECTIVE_PATTERN.matcher(line);
+
+        if (directive.matches() && DIRECTIVES.contains(directive.group(1)))
+          directives.add(new Directive(directive.group(1), directive.group(2)));
+      }
+    }
+
+    return Collections.unmodifiableList(directives);
+  }
+
+
+
+
+  /**
+   * Preprocessor directive, eg. {@code #include <file.mqh>} with name {@code include} and argument
+   * {@code " <file.mqh>"}.
+   */
+  public static final class Directive
+  {
+    private final String name;
+    private final String argument;
+
+
+    Directive(String name, String argument)
+    {
+      this.name = name;
+      this.argument = argument;
+    }
+
+
+    public String getName() {
+      return name;
+    }
+
+
+    public String getArgument() {
+      return argument;
+    }
+  }
+
+
+
+
+  private static final class CacheEntry
+  {
+    private final long length;
+    private final long lastModified;
+    private final List<Directive> directives;
+
+
+    private CacheEntry(long length, long lastModified, List<Directive> directives)
+    {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.directives = directives;
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import lombok.Setter;
+
+
+/**
+ * <p>
+ *   Packs the ex4 files produced by a compile task into a zip archive. Entries are named {@code MQL4/<path>.ex4} and
+ *   the archive contains a manifest ({@value #MANIFEST_ENTRY}) listing the SHA-256 checksum of each entry in
+ *   {@code sha256sum} format.
+ * </p>
+ *
+ * <p>
+ *   The archive is reproducible: entries are sorted by name and have a fixed timestamp. Checksums of unchanged ex4
+ *   files (same size and modification time) are taken from the previous run and the archive is only rewritten if the
+ *   manifest has changed, so the archive stays byte-identical if the content of the ex4 files is the same.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public class Mql4DistributionTask extends DefaultTask
+{
+  static final String MANIFEST_ENTRY = "MQL4-MANIFEST.sha256";
+  static final String CHECKSUMS_FILE = "checksums.properties";
+
+  /** 1980-02-01 00:00 local time, which is the same DOS timestamp in any time zone */
+  static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+  @Setter
+  private CompileMQL4Task compileTask;
+
+  private File archiveFile =
+      new File(getProject().getBuildDir(), "distributions/" + getProject().getName() + "-mql4.zip");
+
+
+  @InputFiles
+  public FileCollection getEx4Files() {
+    return compileTask.getEx4Files();
+  }
+
+
+  @OutputFile
+  public File getArchiveFile() {
+    return archiveFile;
+  }
+
+
+  public void setArchiveFile(File archiveFile) {
+    this.archiveFile = archiveFile;
+  }
+
+
+  public void setArchiveFile(String archiveFile) {
+    this.archiveFile = getProject().file(archiveFile);
+  }
+
+
+  /**
+   * Returns the directory containing the checksums of the packed files.
+   */
+  @Internal
+  public File getStateDir() {
+    return new File(getProject().getBuildDir(), "mql4/" + getName());
+  }
+
+
+  @TaskAction
+  public void createDistribution() throws IOException
+  {
+    // entry name -> ex4 file, sorted by entry name
+    final Map<String,File> entries = new TreeMap<>();
+
+    for(final String relativeMq4Path: compileTask.getInputFilesWithDependency().keySet())
+    {
+      final File ex4File = compileTask.getEx4File(relativeMq4Path);
+
+      if (ex4File.isFile())
+        entries.put("MQL4/" + compileTask.replaceExtension(relativeMq4Path, "ex4").replace('\\', '/'), ex4File);
+      else
+        getLogger().warn("{} has not been compiled; not included in {}", ex4File, archiveFile.getName());
+    }
+
+    final String manifest = createManifest(entries);
+
+    if (manifest.equals(readManifest(archiveFile)))
+    {
+      getLogger().info("{} is up-to-date", archiveFile);
+      return;
+    }
+
+    writeArchive(archiveFile, entries, manifest);
+
+    getLogger().lifecycle("{}: {} ex4 file(s)", archiveFile, entries.size());
+  }
+
+
+  /**
+   * Create the manifest for the given entries. Checksums of files with unchanged size and modification time are
+   * reused from the previous run.
+   */
+  private String createManifest(Map<String,File> entries) throws IOException
+  {
+    final StringBuilder manifest = new StringBuilder();
+
+    Checksums.checksums(entries, new File(getStateDir(), CHECKSUMS_FILE))
+        .forEach((name, checksum) -> manifest.append(checksum).append("  ").append(name).append('\n'));
+
+    return manifest.toString();
+  }
+
+
+  /**
+   * Returns the manifest of the given archive.
+   *
+   * @param archiveFile  archive file
+   *
+   * @return  manifest or {@code null} if the archive does not exist, is not readable or has no manifest
+   */
+  static String readManifest(File archiveFile)
+  {
+    if (!archiveFile.isFile())
+      return null;
+
+    try(ZipFile zip = new ZipFile(archiveFile)) {
+      final ZipEntry manifestEntry = zip.getEntry(MANIFEST_ENTRY);
+      if (manifestEntry == null)
+        return null;
+
+      try(InputStream in = zip.getInputStream(manifestEntry)) {
+        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        copy(in, manifest);
+
+        return new String(manifest.toByteArray(), UTF_8);
+      }
+    } catch(final IOException ex) {
+      return null;
+    }
+  }
+
+
+  /**
+   * Write the archive to a temporary file, which replaces the archive file once complete.
+   *
+   * @param archiveFile  archive file
+   * @param entries      entry name -> file, in archive order
+   * @param manifest     manifest; written as last entry
+   *
+   * @throws IOException  if the archive could not be written
+   */
+  static void writeArchive(File archiveFile, Map<String,File> entries, String manifest) throws IOException
+  {
+    final Path archivePath = archiveFile.toPath().toAbsolutePath();
+    Files.createDirectories(archivePath.getParent());
+
+    final Path tmpFile = Files.createTempFile(archivePath.getParent(), archiveFile.getName(), ".tmp");
+
+    try {
+      try(ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(tmpFile))) {
+        for(final Entry<String,File> entry: entries.entrySet())
+        {
+          zip.putNextEntry(createEntry(entry.getKey()));
+          Files.copy(entry.getValue().toPath(), zip);
+          zip.closeEntry();
+        }
+
+        zip.putNextEntry(createEntry(MANIFEST_ENTRY));
+        zip.write(manifest.getBytes(UTF_8));
+        zip.closeEntry();
+      }
+
+      Files.move(tmpFile, archivePath, REPLACE_EXISTING, ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+
+  private static ZipEntry createEntry(String name)
+  {
+    final ZipEntry entry = new ZipEntry(name);
+    entry.setTime(ENTRY_TIME);
+
+    return entry;
+  }
+
+
+  private static void copy(InputStream in, OutputStream out) throws IOException
+  {
+    final byte[] buffer = new byte[8192];
+
+    for(int n; (n = in.read(buffer)) > 0;)
+      out.write(buffer, 0, n);
+  }
+}
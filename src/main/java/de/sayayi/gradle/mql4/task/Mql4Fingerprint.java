@@ -0,0 +1,215 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+/**
+ * <p>
+ *   Fingerprint of an mq4/mqh source file, calculated from its token stream. Comments, trailing whitespace, empty
+ *   lines and whitespace between tokens are ignored, so purely cosmetic changes result in the same fingerprint.
+ * </p>
+ *
+ * <p>
+ *   Line breaks are significant as they terminate preprocessor directives. String and character literals are kept
+ *   as they are.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4Fingerprint
+{
+  private Mql4Fingerprint() {
+  }
+
+
+  /**
+   * Returns the fingerprint for the given source file.
+   *
+   * @param file  mq4 or mqh file
+   *
+   * @return  fingerprint (SHA-256, hex encoded)
+   *
+   * @throws IOException  if the file could not be read
+   */
+  public static String of(File file) throws IOException
+  {
+    final byte[] content = Files.readAllBytes(file.toPath());
+
+    // metaeditor stores files either as UTF-16LE (with BOM) or as single byte encoded text
+    final String source = content.length >= 2 && content[0] == (byte)0xff && content[1] == (byte)0xfe
+        ? new String(content, 2, content.length - 2, UTF_16LE)
+        : new String(content, ISO_8859_1);
+
+    return Checksums.toHex(Checksums.newDigest().digest(normalize(source).getBytes(UTF_8)));
+  }
+
+
+  /**
+   * Returns the fingerprint of a file and its entire dependency closure. In contrast to {@link #of(File)}, the
+   * fingerprint is calculated from the raw file contents, so any change to the file or one of its dependencies results
+   * in a different fingerprint.
+   *
+   * @param dependency  dependency tree of the file
+   * @param toolchain   identification of the compiler, eg. the metaeditor checksum
+   *
+   * @return  fingerprint (SHA-256, hex encoded)
+   *
+   * @throws IOException  if a file could not be read
+   */
+  public static String ofClosure(Mql4Dependency dependency, String toolchain) throws IOException {
+    return ofClosure(dependency, toolchain, new HashMap<>());
+  }
+
+
+  /**
+   * Returns the fingerprint of a file and its entire dependency closure. Checksums of the files in the closure are
+   * taken from the given cache, so files shared by many closures are read once only.
+   *
+   * @param dependency  dependency tree of the file
+   * @param toolchain   identification of the compiler, eg. the metaeditor checksum
+   * @param checksums   file checksum cache, see {@link Checksums#checksum(File, Map)}
+   *
+   * @return  fingerprint (SHA-256, hex encoded)
+   *
+   * @throws IOException  if a file could not be read
+   */
+  public static String ofClosure(Mql4Dependency dependency, String toolchain, Map<String,String> checksums)
+      throws IOException
+  {
+    final TreeSet<String> files = new TreeSet<>();
+
+    for(final Iterator<File> closure = dependency.streamDependenciesWithSelf().iterator(); closure.hasNext();)
+      files.add(closure.next().toPath().toAbsolutePath().normalize().toString());
+
+    final MessageDigest digest = Checksums.newDigest();
+
+    digest.update(toolchain.getBytes(UTF_8));
+
+    for(final String file: files)
+    {
+      final File f = new File(file);
+
+      digest.update((byte)0);
+      digest.update(file.getBytes(UTF_8));
+      digest.update((byte)0);
+      digest.update(f.isFile() ? Checksums.checksum(f, checksums).getBytes(UTF_8) : new byte[] { '-' });
+    }
+
+    return Checksums.toHex(digest.digest());
+  }
+
+
+  /**
+   * Normalize the source: each non-empty line consists of its tokens. Whitespace between tokens is collapsed to a
+   * single space and removed next to brackets, commas and semicolons.
+   *
+   * @param source  source text
+   *
+   * @return  normalized source text
+   */
+  static String normalize(String source)
+  {
+    final StringBuilder normalized = new StringBuilder();
+    final StringBuilder line = new StringBuilder();
+    final int length = source.length();
+    boolean pendingSpace = false;
+
+    for(int n = 0; n < length; n++)
+    {
+      final char c = source.charAt(n);
+
+      if (c == '/' && n + 1 < length && source.charAt(n + 1) == '/')
+      {
+        // line comment: skip to end of line
+        while(n + 1 < length && source.charAt(n + 1) != '\n')
+          n++;
+      }
+      else if (c == '/' && n + 1 < length && source.charAt(n + 1) == '*')
+      {
+        // block comment: acts as a token separator
+        final int end = source.indexOf("*/", n + 2);
+        n = end < 0 ? length : end + 1;
+        pendingSpace = true;
+      }
+      else if (c == '"' || c == '\'')
+      {
+        final int start = n;
+
+        // string or character literal: copy verbatim, honouring escape sequences
+        while(++n < length && source.charAt(n) != c && source.charAt(n) != '\n')
+          if (source.charAt(n) == '\\')
+            n++;
+
+        // unterminated literal: the line break must still end the line
+        if (n < length && source.charAt(n) == '\n')
+          appendToken(line, source.substring(start, n--), pendingSpace);
+        else
+          appendToken(line, source.substring(start, Math.min(n + 1, length)), pendingSpace);
+
+        pendingSpace = false;
+      }
+      else if (c == '\n')
+      {
+        if (line.length() > 0)
+          normalized.append(line).append('\n');
+
+        line.setLength(0);
+        pendingSpace = false;
+      }
+      else if (Character.isWhitespace(c))
+        pendingSpace = true;
+      else
+      {
+        appendToken(line, String.valueOf(c), pendingSpace);
+        pendingSpace = false;
+      }
+    }
+
+    if (line.length() > 0)
+      normalized.append(line).append('\n');
+
+    return normalized.toString();
+  }
+
+
+  private static void appendToken(StringBuilder line, String token, boolean pendingSpace)
+  {
+    // whitespace next to a separator is insignificant; elsewhere (eg. "a + +b") it is collapsed to a single space
+    if (pendingSpace && line.length() > 0 && !isSeparator(line.charAt(line.length() - 1)) &&
+        !isSeparator(token.charAt(0)))
+      line.append(' ');
+
+    line.append(token);
+  }
+
+
+  private static boolean isSeparator(char c) {
+    return "()[]{},;".indexOf(c) >= 0;
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import de.sayayi.gradle.mql4.task.Mql4DirectiveCache.Directive;
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Resolves included files, resources and libraries. Angle bracket includes ({@code #include <file.mqh>}) are
+ *   searched in {@code MQL4/Include} first, followed by the configured include directories.
+ * </p>
+ *
+ * <p>
+ *   Directory listings are read once and memoized, as are the results of include lookups. A resolver is therefore
+ *   meant to be used for a single dependency analysis; files created afterwards are not noticed.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4IncludeResolver
+{
+  /** windows file systems are case insensitive */
+  private static final boolean CASE_INSENSITIVE = File.separatorChar == '\\';
+
+  @Getter
+  private final File mql4Dir;
+
+  /** include search path, {@code MQL4/Include} first */
+  @Getter
+  private final List<File> searchPath = new ArrayList<>();
+
+  private final Map<File,Set<String>> listings = new HashMap<>();
+  private final Map<String,File> includes = new HashMap<>();
+
+  /** ids of all files of the dependency analysis */
+  @Getter
+  private final Mql4PathTable paths = new Mql4PathTable();
+
+  /** directive cache or {@code null} */
+  private final Mql4DirectiveCache directiveCache;
+
+
+  /**
+   * @param mql4Dir      MQL4 directory
+   * @param includeDirs  additional include directories, searched after {@code MQL4/Include}
+   */
+  public Mql4IncludeResolver(File mql4Dir, List<File> includeDirs) {
+    this(mql4Dir, includeDirs, null);
+  }
+
+
+  /**
+   * @param mql4Dir         MQL4 directory
+   * @param includeDirs     additional include directories, searched after {@code MQL4/Include}
+   * @param directiveCache  cache for the directives of parsed files or {@code null}
+   */
+  public Mql4IncludeResolver(File mql4Dir, List<File> includeDirs, Mql4DirectiveCache directiveCache)
+  {
+    this.mql4Dir = mql4Dir;
+    this.directiveCache = directiveCache;
+
+    searchPath.add(new File(mql4Dir, "Include"));
+    searchPath.addAll(includeDirs);
+  }
+
+
+  /**
+   * Returns the preprocessor directives of the given file.
+   *
+   * @param file  mq4/mqh file
+   *
+   * @return  directives in order of appearance
+   *
+   * @throws IOException  if the file could not be read
+   */
+  public List<Directive> getDirectives(File file) throws IOException
+  {
+    return directiveCache == null
+        ? Mql4DirectiveCache.readDirectives(file) : directiveCache.getDirectives(file);
+  }
+
+
+  /**
+   * Resolve an angle bracket include.
+   *
+   * @param name  include name, eg. {@code Arrays/List.mqh}
+   *
+   * @return  the first matching file on the search path or, if the include can't be found, the (missing) file in
+   *          {@code MQL4/Include}
+   */
+  public File resolveInclude(String name)
+  {
+    return includes.computeIfAbsent(name, n -> {
+      for(final File includeDir: searchPath)
+      {
+        final File includeFile = new File(includeDir, n);
+        if (exists(includeFile))
+          return includeFile;
+      }
+
+      return new File(searchPath.get(0), n);
+    });
+  }
+
+
+  /**
+   * Tells whether the given file exists and is a regular file, using the memoized listing of its parent directory.
+   *
+   * @param file  file
+   *
+   * @return  {@code true} if the file exists, {@code false} if it doesn't exist or is a directory
+   */
+  public boolean exists(File file)
+  {
+    final File absoluteFile = file.getAbsoluteFile();
+    final File dir = absoluteFile.getParentFile();
+
+    return dir != null && getListing(dir).contains(normalizeName(absoluteFile.getName()));
+  }
+
+
+  private Set<String> getListing(File dir)
+  {
+    final File key = dir.toPath().normalize().toFile();
+
+    // only regular files; an include or library naming a directory is missing
+    return listings.computeIfAbsent(key, d -> {
+      final File[] files = d.listFiles(File::isFile);
+      if (files == null)
+        return Collections.emptySet();
+
+      final Set<String> listing = new HashSet<>();
+      for(final File file: files)
+        listing.add(normalizeName(file.getName()));
+
+      return listing;
+    });
+  }
+
+
+  private static String normalizeName(String name) {
+    return CASE_INSENSITIVE ? name.toLowerCase(Locale.ROOT) : name;
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Persistent mirror of the MQL4 directory in a fast (eg. RAM backed) directory. Only the files to compile and their
+ *   dependencies are mirrored; files from additional include directories are mirrored as part of
+ *   {@code MQL4/Include}, like in {@link Mql4StagingArea}.
+ * </p>
+ *
+ * <p>
+ *   The size and modification time of each mirrored file is recorded in the mirror itself, so a file is only copied
+ *   if it has changed since the last sync. If the mirror is wiped (eg. by a reboot), the sync state is gone as well
+ *   and all files are copied again.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4Mirror
+{
+  static final String SYNC_STATE_FILE = "mirror.properties";
+
+  private final Path mql4Path;
+  private final List<File> includeDirs;
+  private final File syncStateFile;
+  private final Map<String,String> syncState;
+
+  /** files synced since this mirror has been opened */
+  private final Set<Path> synced = new HashSet<>();
+
+  /** mirrored MQL4 directory */
+  @Getter
+  private final File mql4Dir;
+
+  /** number of files copied since this mirror has been opened */
+  @Getter
+  private int copied;
+
+
+  /**
+   * @param mirrorDir    mirror directory; the mirrored MQL4 directory is {@code <mirrorDir>/MQL4}
+   * @param mql4Dir      MQL4 directory
+   * @param includeDirs  additional include directories
+   */
+  public Mql4Mirror(File mirrorDir, File mql4Dir, List<File> includeDirs)
+  {
+    this.mql4Path = mql4Dir.toPath().toAbsolutePath().normalize();
+    this.includeDirs = includeDirs;
+    this.mql4Dir = new File(mirrorDir, "MQL4");
+
+    syncStateFile = new File(mirrorDir, SYNC_STATE_FILE);
+    syncState = StateFile.load(syncStateFile);
+  }
+
+
+  /**
+   * Bring the given file and its dependencies up to date. Mirrored copies of dependencies which do not exist
+   * (anymore) are removed, so the compiler doesn't pick up stale files. Each file is synced once only.
+   *
+   * @param dependency  dependency tree of the file to compile
+   *
+   * @throws IOException  if a file could not be copied
+   */
+  public synchronized void sync(Mql4Dependency dependency) throws IOException
+  {
+    final Path mirrorPath = mql4Dir.toPath();
+
+    for(final Iterator<File> files = dependency.streamDependenciesWithSelf().iterator(); files.hasNext();)
+    {
+      final Path file = files.next().toPath().toAbsolutePath().normalize();
+      if (!synced.add(file))
+        continue;
+
+      // files outside of the MQL4 and include directories can't be mirrored; the compiler will report them
+      final String relativePath = Mql4StagingArea.getRelativePath(mql4Path, includeDirs, file);
+      if (relativePath == null)
+        continue;
+
+      final Path target = mirrorPath.resolve(relativePath);
+
+      if (!Files.isRegularFile(file))
+      {
+        Files.deleteIfExists(target);
+        syncState.remove(relativePath);
+        continue;
+      }
+
+      final String stamp = Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+
+      if (!stamp.equals(syncState.get(relativePath)) || !Files.isRegularFile(target))
+      {
+        Files.createDirectories(target.getParent());
+        Files.copy(file, target, REPLACE_EXISTING, COPY_ATTRIBUTES);
+
+        syncState.put(relativePath, stamp);
+        copied++;
+      }
+    }
+  }
+
+
+  /**
+   * Copy a compiled file from the mirror to its target location. The file is kept in the mirror, so files importing
+   * a library compiled in the mirror see the new library.
+   *
+   * @param compiledFile  compiled file in the mirror
+   * @param target        target file
+   *
+   * @throws IOException  if the file could not be copied
+   */
+  public void publish(File compiledFile, File target) throws IOException
+  {
+    final File copy = new File(compiledFile.getPath() + ".publish");
+
+    Files.copy(compiledFile.toPath(), copy.toPath(), REPLACE_EXISTING, COPY_ATTRIBUTES);
+    Mql4StagingArea.publish(copy, target);
+  }
+
+
+  /**
+   * Store the sync state in the mirror directory.
+   */
+  public synchronized void store() {
+    StateFile.store(syncStateFile, syncState);
+  }
+}
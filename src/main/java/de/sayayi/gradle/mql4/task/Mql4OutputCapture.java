@@ -0,0 +1,202 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Captures the standard and error output of a compiler process. The output is split into lines, each line is
+ *   logged with the relative path of the compiled file as prefix and appended to a capture file, with error output
+ *   marked as such. Concurrent compiles therefore produce readable, attributed output.
+ * </p>
+ *
+ * <p>
+ *   Memory usage is bounded: lines longer than {@link #MAX_LINE_LENGTH} bytes are split and the capture file is
+ *   truncated after {@link #MAX_CAPTURE_SIZE} characters. The capture file is only created if there is any output.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4OutputCapture implements Closeable
+{
+  static final int MAX_LINE_LENGTH = 4096;
+  static final long MAX_CAPTURE_SIZE = 1024 * 1024;
+
+  private final String prefix;
+  private final File captureFile;
+  private final Logger logger;
+  private final LogLevel level;
+
+  @Getter
+  private final OutputStream standardOutput;
+
+  @Getter
+  private final OutputStream errorOutput;
+
+  private Writer capture;
+  private long captureSize;
+
+  /** number of captured lines */
+  @Getter
+  private int lines;
+
+
+  /**
+   * @param prefix       line prefix, eg. the relative path of the compiled file
+   * @param captureFile  file receiving the output; an existing file is replaced
+   * @param logger       logger
+   * @param level        log level for the output lines
+   */
+  public Mql4OutputCapture(String prefix, File captureFile, Logger logger, LogLevel level) throws IOException
+  {
+    this.prefix = prefix;
+    this.captureFile = captureFile;
+    this.logger = logger;
+    this.level = level;
+
+    standardOutput = new LineOutputStream(false);
+    errorOutput = new LineOutputStream(true);
+
+    Files.deleteIfExists(captureFile.toPath());
+  }
+
+
+  @Override
+  public synchronized void close() throws IOException
+  {
+    standardOutput.close();
+    errorOutput.close();
+
+    if (capture != null)
+    {
+      capture.close();
+      capture = null;
+    }
+  }
+
+
+  private synchronized void line(boolean error, String line)
+  {
+    lines++;
+    logger.log(level, "{}: {}{}", prefix, error ? "[stderr] " : "", line);
+
+    if (captureSize > MAX_CAPTURE_SIZE)
+      return;
+
+    try {
+      if (capture == null)
+      {
+        Files.createDirectories(captureFile.getParentFile().toPath());
+        capture = Files.newBufferedWriter(captureFile.toPath(), Charset.defaultCharset());
+      }
+
+      if (error)
+        capture.write("[stderr] ");
+
+      capture.write(line);
+      capture.write('\n');
+
+      if ((captureSize += line.length() + 1) > MAX_CAPTURE_SIZE)
+        capture.write("... output truncated\n");
+    } catch(final IOException ex) {
+      logger.warn("failed to write output of {} to {}", prefix, captureFile, ex);
+      captureSize = Long.MAX_VALUE;
+    }
+  }
+
+
+
+
+  /**
+   * Collects the bytes written by the process into lines of at most {@link #MAX_LINE_LENGTH} bytes. Each stream is
+   * written by a single thread.
+   */
+  private final class LineOutputStream extends OutputStream
+  {
+    private final boolean error;
+    private final byte[] buffer = new byte[MAX_LINE_LENGTH];
+    private int length;
+    private boolean cr;
+
+
+    private LineOutputStream(boolean error) {
+      this.error = error;
+    }
+
+
+    @Override
+    public void write(int b)
+    {
+      // CR, LF and CRLF terminate a line
+      if (b == '\n' && cr)
+      {
+        cr = false;
+        return;
+      }
+
+      cr = b == '\r';
+
+      if (b == '\n' || b == '\r')
+        flushLine();
+      else
+      {
+        if (length == buffer.length)
+          flushLine();
+
+        buffer[length++] = (byte)b;
+      }
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+      for(int n = 0; n < len; n++)
+        write(b[off + n]);
+    }
+
+
+    @Override
+    public void close()
+    {
+      if (length > 0)
+        flushLine();
+    }
+
+
+    private void flushLine()
+    {
+      final String line = new String(buffer, 0, length, Charset.defaultCharset());
+      length = 0;
+
+      if (!line.trim().isEmpty())
+        line(error, line);
+    }
+  }
+}
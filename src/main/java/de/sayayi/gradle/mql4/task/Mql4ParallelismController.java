@@ -0,0 +1,321 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Limits the number of files a compile task compiles concurrently. With a fixed limit ({@code min == max}) this is
+ *   a plain counting semaphore.
+ * </p>
+ *
+ * <p>
+ *   Otherwise the limit is tuned while compiling: after each window of completed compilations the throughput (files
+ *   per second) is compared with the previous window. The limit keeps moving in the same direction as long as the
+ *   throughput improves and turns around if it drops. The limit is lowered if the system load per processor exceeds
+ *   {@value #OVERLOAD} or if there's not enough available memory for another compilation, and it never exceeds the
+ *   memory budget divided by the estimated memory per compilation.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public class Mql4ParallelismController
+{
+  private static final Logger LOGGER = Logging.getLogger(Mql4ParallelismController.class);
+
+  /** system load per processor above which the limit is lowered */
+  static final double OVERLOAD = 1.5;
+
+  /** relative throughput change which is considered significant */
+  static final double SIGNIFICANT_CHANGE = 0.05;
+
+  @Getter
+  private final int minCompiles;
+
+  @Getter
+  private final int maxCompiles;
+
+  private final long memoryPerCompile;
+  private final SystemLoad systemLoad;
+  private final LongSupplier clock;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition slotAvailable = lock.newCondition();
+
+  private int limit;
+  private int running;
+  private int direction = 1;
+
+  private long windowStart = -1;
+  private int windowCompleted;
+  private double lastThroughput = -1;
+
+
+  /**
+   * @param minCompiles       minimum number of concurrent compilations
+   * @param maxCompiles       maximum number of concurrent compilations
+   * @param memoryBudget      memory available to all concurrent compilations in bytes or {@code 0} for no budget
+   * @param memoryPerCompile  estimated memory used by a single compilation in bytes
+   * @param systemLoad        system load probe
+   * @param clock             millisecond clock
+   */
+  Mql4ParallelismController(int minCompiles, int maxCompiles, long memoryBudget, long memoryPerCompile,
+      SystemLoad systemLoad, LongSupplier clock)
+  {
+    int max = Math.max(1, maxCompiles);
+    if (memoryBudget > 0 && memoryPerCompile > 0)
+      max = (int)Math.min(max, memoryBudget / memoryPerCompile);
+
+    this.minCompiles = Math.max(1, Math.min(minCompiles, maxCompiles));
+    this.maxCompiles = Math.max(this.minCompiles, max);
+    this.memoryPerCompile = memoryPerCompile;
+    this.systemLoad = systemLoad;
+    this.clock = clock;
+
+    limit = this.minCompiles;
+  }
+
+
+  /**
+   * Returns a controller with a fixed number of concurrent compilations.
+   *
+   * @param compiles  number of concurrent compilations
+   *
+   * @return  controller, never {@code null}
+   */
+  public static Mql4ParallelismController fixed(int compiles) {
+    return new Mql4ParallelismController(compiles, compiles, 0, 0, SystemLoad.NONE, System::currentTimeMillis);
+  }
+
+
+  /**
+   * Returns a controller which tunes the number of concurrent compilations at runtime.
+   *
+   * @param minCompiles       minimum number of concurrent compilations
+   * @param maxCompiles       maximum number of concurrent compilations
+   * @param memoryBudget      memory available to all concurrent compilations in bytes or {@code 0} for no budget
+   * @param memoryPerCompile  estimated memory used by a single compilation in bytes
+   *
+   * @return  controller, never {@code null}
+   */
+  public static Mql4ParallelismController auto(int minCompiles, int maxCompiles, long memoryBudget,
+                                               long memoryPerCompile)
+  {
+    return new Mql4ParallelismController(minCompiles, maxCompiles, memoryBudget, memoryPerCompile,
+        SystemLoad.OPERATING_SYSTEM, System::currentTimeMillis);
+  }
+
+
+  /**
+   * Returns the current number of allowed concurrent compilations.
+   */
+  public int getLimit()
+  {
+    lock.lock();
+    try {
+      return limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+  /**
+   * Acquire a compile slot. This method blocks until the number of running compilations is below the current limit.
+   *
+   * @throws InterruptedException  if the thread was interrupted while waiting for a slot
+   */
+  public void acquire() throws InterruptedException
+  {
+    lock.lock();
+    try {
+      while(running >= limit)
+        slotAvailable.await();
+
+      if (windowStart < 0)
+        windowStart = clock.getAsLong();
+
+      running++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+  /**
+   * Release a compile slot after the compilation has finished.
+   */
+  public void release()
+  {
+    lock.lock();
+    try {
+      running--;
+
+      if (minCompiles < maxCompiles && ++windowCompleted >= Math.max(2, limit))
+        adjust();
+
+      slotAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+  private void adjust()
+  {
+    final long now = clock.getAsLong();
+    final double throughput = windowCompleted * 1000.0 / Math.max(1, now - windowStart);
+    final double load = systemLoad.getLoadAverage() / Math.max(1, systemLoad.getProcessors());
+    final long availableMemory = systemLoad.getAvailableMemory();
+    final int previousLimit = limit;
+
+    if (load > OVERLOAD || (availableMemory >= 0 && availableMemory < memoryPerCompile))
+      direction = -1;
+    else if (lastThroughput >= 0 && throughput < lastThroughput * (1 - SIGNIFICANT_CHANGE))
+      direction = -direction;
+    else if (lastThroughput >= 0 && throughput <= lastThroughput * (1 + SIGNIFICANT_CHANGE))
+      direction = 0;
+    else if (direction == 0)
+      direction = 1;
+
+    // don't grow if there's no memory for another compilation
+    if (direction > 0 && availableMemory >= 0 && availableMemory < 2 * memoryPerCompile)
+      direction = 0;
+
+    limit = Math.max(minCompiles, Math.min(maxCompiles, limit + direction));
+    if (limit != previousLimit)
+    {
+      LOGGER.info("mql4 auto parallelism: {} -> {} compiles (throughput {} files/s, load {})",
+          previousLimit, limit, String.format("%.2f", throughput), String.format("%.2f", load));
+    }
+
+    lastThroughput = throughput;
+    windowStart = now;
+    windowCompleted = 0;
+  }
+
+
+
+
+  /**
+   * System load probe.
+   */
+  interface SystemLoad
+  {
+    SystemLoad NONE = new SystemLoad() {
+      @Override
+      public double getLoadAverage() {
+        return -1;
+      }
+
+      @Override
+      public long getAvailableMemory() {
+        return -1;
+      }
+
+      @Override
+      public int getProcessors() {
+        return 1;
+      }
+    };
+
+
+    SystemLoad OPERATING_SYSTEM = new OperatingSystemLoad(new File("/proc/meminfo"));
+
+
+    /**
+     * Returns the system load average for the last minute or a negative value if not available.
+     */
+    double getLoadAverage();
+
+
+    /**
+     * Returns the memory in bytes available for starting new processes without swapping, or a negative value if not
+     * available.
+     */
+    long getAvailableMemory();
+
+
+    int getProcessors();
+  }
+
+
+
+
+  /**
+   * System load of the operating system. The available memory is taken from {@code MemAvailable} in
+   * {@code /proc/meminfo} where present, as the free physical memory reported by the JVM excludes the page cache
+   * and is therefore close to zero on any Linux system which has been running for a while.
+   */
+  static class OperatingSystemLoad implements SystemLoad
+  {
+    private final File meminfo;
+
+
+    OperatingSystemLoad(File meminfo) {
+      this.meminfo = meminfo;
+    }
+
+
+    @Override
+    public double getLoadAverage() {
+      return ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+    }
+
+
+    @Override
+    public long getAvailableMemory()
+    {
+      if (meminfo.isFile())
+      {
+        try {
+          for(final String line: Files.readAllLines(meminfo.toPath(), ISO_8859_1))
+            if (line.startsWith("MemAvailable:"))
+              return Long.parseLong(line.substring(13).replace("kB", "").trim()) * 1024;
+        } catch(final IOException | NumberFormatException ex) {
+          LOGGER.debug("failed to read available memory from {}", meminfo, ex);
+        }
+      }
+
+      final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+      return os instanceof com.sun.management.OperatingSystemMXBean
+          ? ((com.sun.management.OperatingSystemMXBean)os).getFreePhysicalMemorySize() : -1;
+    }
+
+
+    @Override
+    public int getProcessors() {
+      return Runtime.getRuntime().availableProcessors();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * <p>
+ *   Assigns a dense integer id to each file of a dependency analysis. Files are identified by their normalized,
+ *   absolute path; the file registered first is returned for an id.
+ * </p>
+ *
+ * <p>
+ *   Dependency graphs refer to files by id only, so a file shared by many root files is stored once.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4PathTable
+{
+  private final Map<Path,Integer> ids = new HashMap<>();
+  private final List<File> files = new ArrayList<>();
+
+
+  /**
+   * Returns the id of the given file, registering the file if necessary.
+   *
+   * @param file  file
+   *
+   * @return  file id
+   */
+  public synchronized int intern(File file)
+  {
+    return ids.computeIfAbsent(normalize(file), p -> {
+      files.add(file);
+      return files.size() - 1;
+    });
+  }
+
+
+  /**
+   * Returns the id of the given file.
+   *
+   * @param file  file
+   *
+   * @return  file id or {@code -1} if the file is not registered
+   */
+  public synchronized int find(File file)
+  {
+    final Integer id = ids.get(normalize(file));
+    return id == null ? -1 : id;
+  }
+
+
+  /**
+   * Returns the file for the given id.
+   *
+   * @param id  file id
+   *
+   * @return  file, never {@code null}
+   */
+  public synchronized File getFile(int id) {
+    return files.get(id);
+  }
+
+
+  /**
+   * Returns the number of registered files.
+   */
+  public synchronized int size() {
+    return files.size();
+  }
+
+
+  private static Path normalize(File file) {
+    return file.toPath().toAbsolutePath().normalize();
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.logging.Logger;
+
+import de.sayayi.gradle.mql4.task.Mql4Dependency.Kind;
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Pre-flight validation of the selected files, performed before any compiler process is started. It reports
+ *   missing includes and resources, unreadable files and include cycles for all selected files at once.
+ * </p>
+ *
+ * <p>
+ *   Problems are grouped by file, so a missing include shared by many files is reported once, together with the
+ *   selected files depending on it.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4Preflight
+{
+  /** missing/unreadable file problems, sorted by problem */
+  @Getter
+  private final List<String> problems = new ArrayList<>();
+
+  /** include cycles */
+  @Getter
+  private final List<String> includeCycles = new ArrayList<>();
+
+
+  /**
+   * @param mql4Dir    MQL4 directory
+   * @param mql4Files  selected files, keyed by relative path
+   */
+  public Mql4Preflight(File mql4Dir, Map<String,Mql4Dependency> mql4Files)
+  {
+    final String mql4DirPath = mql4Dir.getAbsolutePath();
+    final Map<String,Set<String>> problemFiles = new TreeMap<>();
+    final Set<String> cycles = new TreeSet<>();
+
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+    {
+      final Mql4Dependency dependency = mql4File.getValue();
+
+      for(final Entry<File,Kind> missing: dependency.getMissingDependencies().entrySet())
+      {
+        final String problem = "missing " + (missing.getValue() == Kind.RESOURCE ? "resource " : "include ") +
+            relativize(mql4DirPath, missing.getKey());
+        problemFiles.computeIfAbsent(problem, p -> new TreeSet<>()).add(mql4File.getKey());
+      }
+
+      for(final File unreadable: dependency.getUnreadableFiles())
+      {
+        problemFiles.computeIfAbsent("unreadable file " + relativize(mql4DirPath, unreadable), p -> new TreeSet<>())
+            .add(mql4File.getKey());
+      }
+
+      for(final List<File> cycle: dependency.getIncludeCycles())
+      {
+        cycles.add(cycle.stream()
+            .map(f -> relativize(mql4DirPath, f))
+            .collect(Collectors.joining(" -> ", "include cycle ", "")));
+      }
+    }
+
+    for(final Entry<String,Set<String>> problem: problemFiles.entrySet())
+      problems.add(problem.getKey() + " (required by " + String.join(", ", problem.getValue()) + ")");
+
+    includeCycles.addAll(cycles);
+  }
+
+
+  /**
+   * Report the problems found.
+   *
+   * @param logger         logger
+   * @param severity       severity for missing and unreadable files
+   * @param cycleSeverity  severity for include cycles
+   *
+   * @throws GradleException  if problems with severity {@link Severity#ERROR} have been found
+   */
+  public void report(Logger logger, Severity severity, Severity cycleSeverity)
+  {
+    final List<String> errors = new ArrayList<>();
+
+    report(logger, severity, problems, errors);
+    report(logger, cycleSeverity, includeCycles, errors);
+
+    if (!errors.isEmpty())
+    {
+      throw new GradleException("mql4 pre-flight check failed with " + errors.size() + " problem(s):\n  " +
+          String.join("\n  ", errors));
+    }
+  }
+
+
+  private void report(Logger logger, Severity severity, List<String> messages, List<String> errors)
+  {
+    if (severity == Severity.ERROR)
+      errors.addAll(messages);
+    else if (severity == Severity.WARN)
+      messages.forEach(message -> logger.warn("mql4 pre-flight: {}", message));
+  }
+
+
+  private static String relativize(String mql4DirPath, File file)
+  {
+    final String path = file.getAbsolutePath();
+
+    return path.startsWith(mql4DirPath) && path.length() > mql4DirPath.length()
+        ? path.substring(mql4DirPath.length() + 1).replace('\\', '/')
+        : path;
+  }
+
+
+
+
+  public enum Severity
+  {
+    /** fail the build before compiling */
+    ERROR,
+
+    /** log a warning and continue */
+    WARN,
+
+    /** don't report */
+    OFF;
+
+
+    /**
+     * Parse a severity ({@code error}, {@code warn} or {@code off}), ignoring case.
+     *
+     * @param severity  severity string
+     *
+     * @return  severity, never {@code null}
+     */
+    public static Severity parse(String severity)
+    {
+      try {
+        return valueOf(severity.trim().toUpperCase(Locale.ROOT));
+      } catch(final IllegalArgumentException | NullPointerException ex) {
+        throw new InvalidUserDataException("mql4 pre-flight severity must be one of error, warn or off: " + severity);
+      }
+    }
+  }
+}
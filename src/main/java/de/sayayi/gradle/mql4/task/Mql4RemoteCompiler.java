@@ -0,0 +1,201 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static de.sayayi.gradle.mql4.task.Mql4CompileAgent.COMPILE_PATH;
+import static de.sayayi.gradle.mql4.task.Mql4CompileAgent.HEADER_FILE;
+import static de.sayayi.gradle.mql4.task.Mql4CompileAgent.HEADER_RESULT;
+import static de.sayayi.gradle.mql4.task.Mql4CompileAgent.RESULT_SUCCESS;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * Client for {@link Mql4CompileAgent}. The mq4 file is sent to the agent together with all its dependencies; the
+ * compiled ex4 file and the compile log returned by the agent are stored next to the mq4 file.
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString
+public class Mql4RemoteCompiler
+{
+  /** timeout in milliseconds for establishing a connection to the agent */
+  static final int CONNECT_TIMEOUT = 10000;
+
+  /** default timeout in seconds for waiting on the agent's response */
+  static final int DEFAULT_READ_TIMEOUT = 600;
+
+  @Getter
+  private final URL agentUrl;
+
+  /** read timeout in milliseconds */
+  @Getter
+  private final int readTimeout;
+
+
+  public Mql4RemoteCompiler(URL agentUrl) {
+    this(agentUrl, DEFAULT_READ_TIMEOUT * 1000);
+  }
+
+
+  /**
+   * @param agentUrl     URL of the compile agent
+   * @param readTimeout  maximum time in milliseconds to wait for the agent's response, {@code 0} waits forever
+   */
+  public Mql4RemoteCompiler(URL agentUrl, int readTimeout)
+  {
+    this.agentUrl = agentUrl;
+    this.readTimeout = readTimeout;
+  }
+
+
+  /**
+   * Compile the given mq4 file on the remote agent.
+   *
+   * @param mql4Dir       MQL4 directory
+   * @param includeDirs   additional include directories; included files are sent as part of {@code MQL4/Include}
+   * @param relativePath  path of the mq4 file, relative to {@code mql4Dir}
+   * @param dependency    dependency tree of the mq4 file
+   *
+   * @return  {@code true} if the agent reports a successful compilation
+   *
+   * @throws IOException  if the agent could not be reached, timed out or responded with an error
+   */
+  public boolean compile(File mql4Dir, List<File> includeDirs, String relativePath, Mql4Dependency dependency)
+      throws IOException {
+    return compile(mql4Dir, includeDirs, relativePath, dependency, mql4Dir);
+  }
+
+
+  /**
+   * Compile the given mq4 file on the remote agent and store the compiled ex4 file and the compile log in the given
+   * result directory.
+   *
+   * @param mql4Dir       MQL4 directory
+   * @param includeDirs   additional include directories; included files are sent as part of {@code MQL4/Include}
+   * @param relativePath  path of the mq4 file, relative to {@code mql4Dir}
+   * @param dependency    dependency tree of the mq4 file
+   * @param resultDir     directory receiving the ex4 and log file, using the same relative path as the mq4 file
+   *
+   * @return  {@code true} if the agent reports a successful compilation
+   *
+   * @throws IOException  if the agent could not be reached, timed out or responded with an error
+   */
+  public boolean compile(File mql4Dir, List<File> includeDirs, String relativePath, Mql4Dependency dependency,
+      File resultDir) throws IOException
+  {
+    final HttpURLConnection connection = (HttpURLConnection)new URL(agentUrl, COMPILE_PATH).openConnection();
+
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(readTimeout);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setChunkedStreamingMode(65536);
+    connection.setRequestProperty("Content-Type", "application/zip");
+    connection.setRequestProperty(HEADER_FILE, relativePath.replace('\\', '/'));
+
+    try {
+      try(ZipOutputStream zip = new ZipOutputStream(connection.getOutputStream())) {
+        writeSourceClosure(zip, mql4Dir.toPath().toAbsolutePath().normalize(), includeDirs, dependency);
+      }
+
+      final int status = connection.getResponseCode();
+      if (status != 200)
+        throw new IOException("compile agent " + agentUrl + " responded with status " + status);
+
+      final File mq4File = new File(resultDir, relativePath);
+
+      try(ZipInputStream zip = new ZipInputStream(connection.getInputStream())) {
+        ZipEntry entry;
+
+        while((entry = zip.getNextEntry()) != null)
+        {
+          final String name = entry.getName();
+          final int dotIdx = name.lastIndexOf('.');
+
+          // only accept the ex4 and log file belonging to the compiled file
+          if (dotIdx > 0)
+          {
+            final String ext = name.substring(dotIdx + 1);
+            if ("ex4".equals(ext) || "log".equals(ext))
+            {
+              final Path target = replaceExtension(mq4File, ext).toPath();
+              Files.createDirectories(target.getParent());
+
+              final Path tmpFile = Files.createTempFile(target.getParent(), "mql4-", ".tmp");
+
+              try {
+                Files.copy(zip, tmpFile, REPLACE_EXISTING);
+                Files.move(tmpFile, target, REPLACE_EXISTING);
+              } finally {
+                Files.deleteIfExists(tmpFile);
+              }
+            }
+          }
+        }
+      }
+
+      return RESULT_SUCCESS.equals(connection.getHeaderField(HEADER_RESULT));
+    } catch(final SocketTimeoutException ex) {
+      throw new IOException("compile agent " + agentUrl + " timed out while compiling " + relativePath, ex);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+
+  private void writeSourceClosure(ZipOutputStream zip, Path mql4Dir, List<File> includeDirs,
+      Mql4Dependency dependency) throws IOException
+  {
+    final Set<String> entries = new HashSet<>();
+
+    for(final Iterator<File> files = dependency.streamDependenciesWithSelf().iterator(); files.hasNext();)
+    {
+      final Path file = files.next().toPath().toAbsolutePath().normalize();
+      final String entry = Mql4StagingArea.getRelativePath(mql4Dir, includeDirs, file);
+
+      // missing includes and files outside of the mql4 and include directories can't be sent
+      if (entry != null && Files.isRegularFile(file) && entries.add(entry))
+      {
+        zip.putNextEntry(new ZipEntry(entry));
+        Files.copy(file, zip);
+        zip.closeEntry();
+      }
+    }
+  }
+
+
+  private File replaceExtension(File f, String ext) {
+    return new File(f.getParent(), Mql4CompileAgent.replaceExtension(f.getName(), ext));
+  }
+}
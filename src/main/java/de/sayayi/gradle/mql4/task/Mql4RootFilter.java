@@ -0,0 +1,170 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import lombok.ToString;
+
+
+/**
+ * <p>
+ *   Narrows the selected mq4 files to a subset. A file is kept if the file itself or any of its dependencies matches
+ *   the filter, so a filter on an include file selects all files including it.
+ * </p>
+ *
+ * <p>
+ *   Paths and globs (eg. {@code Experts/My*.mq4}) are relative to the MQL4 directory, unless they are absolute.
+ *   Directories select all files located in or below them. If changed files are given, only files affected by these
+ *   changes are kept.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString(of = { "files", "dirs" })
+public final class Mql4RootFilter
+{
+  private final Path mql4Dir;
+  private final List<String> files;
+  private final List<String> dirs;
+  private final Set<Path> changedFiles;
+
+  private final List<PathMatcher> fileMatchers = new ArrayList<>();
+  private final List<Path> dirPaths = new ArrayList<>();
+
+
+  /**
+   * @param mql4Dir       MQL4 directory
+   * @param files         paths or globs
+   * @param dirs          directories
+   * @param changedFiles  normalized, absolute paths of changed files or {@code null} to not filter by changes
+   */
+  public Mql4RootFilter(File mql4Dir, Collection<String> files, Collection<String> dirs, Set<Path> changedFiles)
+  {
+    this.mql4Dir = mql4Dir.toPath().toAbsolutePath().normalize();
+    this.files = new ArrayList<>(files);
+    this.dirs = new ArrayList<>(dirs);
+    this.changedFiles = changedFiles;
+
+    for(final String file: files)
+    {
+      final String glob = file.replace('\\', '/');
+
+      fileMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" +
+          (new File(file).isAbsolute() ? glob : escapeGlob(this.mql4Dir.toString()) + '/' + glob)));
+    }
+
+    for(final String dir: dirs)
+      dirPaths.add(this.mql4Dir.resolve(dir).normalize());
+  }
+
+
+  /**
+   * Tells whether this filter narrows the selection at all.
+   */
+  public boolean isEmpty() {
+    return files.isEmpty() && dirs.isEmpty() && changedFiles == null;
+  }
+
+
+  /**
+   * Apply this filter to the selected files.
+   *
+   * @param mql4Files  selected files, keyed by relative path
+   *
+   * @return  new map containing the files matching this filter, in their original order
+   */
+  public Map<String,Mql4Dependency> apply(Map<String,Mql4Dependency> mql4Files)
+  {
+    final Map<String,Mql4Dependency> selected = new LinkedHashMap<>();
+
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+      if (matches(mql4File.getValue()))
+        selected.put(mql4File.getKey(), mql4File.getValue());
+
+    return selected;
+  }
+
+
+  /**
+   * Tells whether the given file or one of its dependencies matches this filter.
+   *
+   * @param dependency  dependency tree of the file
+   *
+   * @return  {@code true} if the file matches, {@code false} otherwise
+   */
+  public boolean matches(Mql4Dependency dependency)
+  {
+    final boolean filterByPath = !fileMatchers.isEmpty() || !dirPaths.isEmpty();
+    boolean pathMatched = !filterByPath;
+    boolean changed = changedFiles == null;
+
+    for(final Iterator<File> closure = dependency.streamDependenciesWithSelf().iterator();
+        closure.hasNext() && !(pathMatched && changed);)
+    {
+      final Path file = closure.next().toPath().toAbsolutePath().normalize();
+
+      if (!pathMatched)
+        pathMatched = matchesPath(file);
+
+      if (!changed)
+        changed = changedFiles.contains(file);
+    }
+
+    return pathMatched && changed;
+  }
+
+
+  private boolean matchesPath(Path file)
+  {
+    for(final PathMatcher fileMatcher: fileMatchers)
+      if (fileMatcher.matches(file))
+        return true;
+
+    for(final Path dirPath: dirPaths)
+      if (file.startsWith(dirPath))
+        return true;
+
+    return false;
+  }
+
+
+  private static String escapeGlob(String path)
+  {
+    final StringBuilder glob = new StringBuilder();
+
+    for(final char c: path.replace('\\', '/').toCharArray())
+    {
+      if ("*?[]{}".indexOf(c) >= 0)
+        glob.append('\\');
+
+      glob.append(c);
+    }
+
+    return glob.toString();
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.gradle.api.InvalidUserDataException;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+
+/**
+ * <p>
+ *   Shard {@code index} of {@code count} ({@code 1 <= index <= count}), used to split compilation across several CI
+ *   jobs.
+ * </p>
+ *
+ * <p>
+ *   The selected files are partitioned deterministically: files are sorted by descending cost (ties are broken by
+ *   their relative path) and each file is assigned to the shard with the lowest total cost so far (ties are broken by
+ *   the lowest shard index). Each job therefore computes the same partition, as long as it sees the same sources and
+ *   the same recorded durations.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@EqualsAndHashCode
+public final class Mql4Shard
+{
+  private static final Pattern SHARD_PATTERN = Pattern.compile("\\s*([0-9]+)\\s*/\\s*([0-9]+)\\s*");
+
+  @Getter
+  private final int index;
+
+  @Getter
+  private final int count;
+
+
+  public Mql4Shard(int index, int count)
+  {
+    if (count < 1 || index < 1 || index > count)
+      throw new InvalidUserDataException("illegal mql4 shard " + index + "/" + count);
+
+    this.index = index;
+    this.count = count;
+  }
+
+
+  /**
+   * Parse a shard in the form {@code index/count}.
+   *
+   * @param shard  shard string, eg. {@code 2/4}
+   *
+   * @return  shard or {@code null} if {@code shard} is empty
+   */
+  public static Mql4Shard parse(String shard)
+  {
+    if (shard == null || shard.trim().isEmpty())
+      return null;
+
+    final Matcher matcher = SHARD_PATTERN.matcher(shard);
+    if (!matcher.matches())
+      throw new InvalidUserDataException("mql4 shard must be of the form index/count: " + shard);
+
+    return new Mql4Shard(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+  }
+
+
+  /**
+   * Select the files belonging to this shard.
+   *
+   * @param mql4Files          all selected files, keyed by relative path
+   * @param recordedDurations  recorded compile durations in milliseconds keyed by relative path, or an empty map
+   *
+   * @return  files belonging to this shard, in the same order as {@code mql4Files}
+   */
+  public Map<String,Mql4Dependency> select(Map<String,Mql4Dependency> mql4Files, Map<String,String> recordedDurations)
+  {
+    final List<Entry<String,Long>> costs = new ArrayList<>();
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+      costs.add(new SimpleImmutableEntry<>(mql4File.getKey(),
+          getCost(mql4File.getKey(), mql4File.getValue(), recordedDurations)));
+
+    costs.sort((e1, e2) -> {
+      final int cmp = Long.compare(e2.getValue(), e1.getValue());
+      return cmp != 0 ? cmp : e1.getKey().compareTo(e2.getKey());
+    });
+
+    final long[] load = new long[count];
+    final Map<String,Mql4Dependency> selected = new LinkedHashMap<>();
+    final Set<String> assigned = new HashSet<>();
+
+    for(final Entry<String,Long> cost: costs)
+    {
+      int shard = 0;
+      for(int n = 1; n < count; n++)
+        if (load[n] < load[shard])
+          shard = n;
+
+      load[shard] += cost.getValue();
+
+      if (shard == index - 1)
+        assigned.add(cost.getKey());
+    }
+
+    // keep original (path) order
+    for(final Entry<String,Mql4Dependency> mql4File: mql4Files.entrySet())
+      if (assigned.contains(mql4File.getKey()))
+        selected.put(mql4File.getKey(), mql4File.getValue());
+
+    return selected;
+  }
+
+
+  /**
+   * Returns the estimated compile cost for a file. If a duration has been recorded for the file, it is used.
+   * Otherwise the cost is estimated from the total size of the file and its dependencies (1ms per kB).
+   */
+  protected long getCost(String relativePath, Mql4Dependency dependency, Map<String,String> recordedDurations)
+  {
+    final String duration = recordedDurations.get(relativePath);
+
+    if (duration != null)
+    {
+      try {
+        return Long.parseLong(duration);
+      } catch(final NumberFormatException ex) {
+        // ignore and fall back to estimation
+      }
+    }
+
+    return 1 + dependency.streamDependenciesWithSelf().mapToLong(File::length).sum() / 1024;
+  }
+
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.gradle.api.Project;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * <p>
+ *   Named set of MQL4 source files, compiled by its own task {@code compileMql4<Name>}. Each source set has its own
+ *   MQL4 directory, includes and excludes and keeps its own up-to-date state, so a change in one source set does not
+ *   affect the others.
+ * </p>
+ *
+ * <p>
+ *   All other settings (metaeditor, wine, include directories, ...) are taken from the {@code mql4} extension.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString(exclude = "project")
+public class Mql4SourceSet
+{
+  private final Project project;
+
+  @Getter
+  private final String name;
+
+  /**
+   * MQL4 directory of this source set. The default is the {@code mql4Dir} configured in the extension.
+   */
+  @Getter
+  private File mql4Dir;
+
+  @Getter
+  private final List<String> includes =
+      new ArrayList<>(Arrays.asList("Indicators/*.mq4", "Experts/*.mq4", "Scripts/*.mq4"));
+
+  @Getter
+  private final List<String> excludes = new ArrayList<>(Arrays.asList("**/*.mqh"));
+
+
+  @Inject
+  public Mql4SourceSet(String name, Project project)
+  {
+    this.name = name;
+    this.project = project;
+  }
+
+
+  public void setMql4Dir(String mql4Dir) {
+    this.mql4Dir = project.file(mql4Dir);
+  }
+
+
+  public void setMql4Dir(File mql4Dir) {
+    this.mql4Dir = mql4Dir;
+  }
+
+
+  public void setInclude(String include) {
+    includes.add(include);
+  }
+
+
+  public void setIncludes(String[] includes)
+  {
+    this.includes.clear();
+    this.includes.addAll(Arrays.asList(includes));
+  }
+
+
+  public void setIncludes(Collection<String> includes)
+  {
+    this.includes.clear();
+    this.includes.addAll(includes);
+  }
+
+
+  public void setExclude(String exclude) {
+    excludes.add(exclude);
+  }
+
+
+  public void setExcludes(String[] excludes)
+  {
+    this.excludes.clear();
+    this.excludes.addAll(Arrays.asList(excludes));
+  }
+
+
+  public void setExcludes(Collection<String> excludes)
+  {
+    this.excludes.clear();
+    this.excludes.addAll(excludes);
+  }
+
+
+  /**
+   * Returns the name of the task compiling this source set, eg. {@code compileMql4Strategies}.
+   */
+  public String getCompileTaskName() {
+    return CompileMQL4TaskPlugin.COMPILE_MQl4_TASK_NAME + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+/**
+ * <p>
+ *   Helpers for compiling outside of the source tree. The source file and its dependencies are copied into a staging
+ *   MQL4 directory, which is compiled instead of the original MQL4 directory. Files from additional include
+ *   directories are staged as part of {@code MQL4/Include}.
+ * </p>
+ *
+ * <p>
+ *   Compiled files are published by moving them atomically into the output directory, so the output directory never
+ *   contains partially written files, even if the build is cancelled.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+public final class Mql4StagingArea
+{
+  private Mql4StagingArea() {
+  }
+
+
+  /**
+   * Returns the path of a dependency relative to the (staged) MQL4 directory.
+   *
+   * @param mql4Dir      normalized, absolute MQL4 directory
+   * @param includeDirs  additional include directories
+   * @param file         normalized, absolute dependency
+   *
+   * @return  relative path with forward slashes or {@code null} if the file is neither located in the MQL4 directory
+   *          nor in one of the include directories
+   */
+  public static String getRelativePath(Path mql4Dir, List<File> includeDirs, Path file)
+  {
+    if (file.startsWith(mql4Dir))
+      return mql4Dir.relativize(file).toString().replace('\\', '/');
+
+    for(final File includeDir: includeDirs)
+    {
+      final Path includePath = includeDir.toPath().toAbsolutePath().normalize();
+      if (file.startsWith(includePath))
+        return "Include/" + includePath.relativize(file).toString().replace('\\', '/');
+    }
+
+    return null;
+  }
+
+
+  /**
+   * Copy the given file and its dependencies into the staging MQL4 directory.
+   *
+   * @param stagingDir   staging MQL4 directory
+   * @param mql4Dir      MQL4 directory
+   * @param includeDirs  additional include directories
+   * @param dependency   dependency tree of the file to compile
+   *
+   * @throws IOException  if a file could not be copied
+   */
+  public static void stage(File stagingDir, File mql4Dir, List<File> includeDirs, Mql4Dependency dependency)
+      throws IOException
+  {
+    final Path mql4Path = mql4Dir.toPath().toAbsolutePath().normalize();
+    final Path stagingPath = stagingDir.toPath();
+
+    for(final Iterator<File> files = dependency.streamDependenciesWithSelf().iterator(); files.hasNext();)
+    {
+      final Path file = files.next().toPath().toAbsolutePath().normalize();
+      final String relativePath = getRelativePath(mql4Path, includeDirs, file);
+
+      // missing files can't be staged; the compiler will report them
+      if (relativePath != null && Files.isRegularFile(file))
+      {
+        final Path target = stagingPath.resolve(relativePath);
+
+        Files.createDirectories(target.getParent());
+        Files.copy(file, target, REPLACE_EXISTING);
+      }
+    }
+  }
+
+
+  /**
+   * Move a compiled file to its target location. The file is first moved into the target directory and then renamed
+   * atomically, replacing an existing file.
+   *
+   * @param file    compiled file
+   * @param target  target file
+   *
+   * @throws IOException  if the file could not be moved
+   */
+  public static void publish(File file, File target) throws IOException
+  {
+    final Path targetPath = target.toPath();
+
+    Files.createDirectories(targetPath.getParent());
+
+    final Path tmpFile = Files.createTempFile(targetPath.getParent(), target.getName(), ".tmp");
+
+    try {
+      Files.move(file.toPath(), tmpFile, REPLACE_EXISTING);
+
+      try {
+        Files.move(tmpFile, targetPath, REPLACE_EXISTING, ATOMIC_MOVE);
+      } catch(final AtomicMoveNotSupportedException ex) {
+        Files.move(tmpFile, targetPath, REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+
+  /**
+   * Delete the given staging directory, including its content.
+   *
+   * @param dir  staging directory
+   *
+   * @throws IOException  if the directory could not be deleted
+   */
+  public static void delete(File dir) throws IOException
+  {
+    if (!dir.exists())
+      return;
+
+    try(Stream<Path> paths = Files.walk(dir.toPath())) {
+      for(final Iterator<Path> files = paths.sorted(Comparator.reverseOrder()).iterator(); files.hasNext();)
+        Files.delete(files.next());
+    }
+  }
+}
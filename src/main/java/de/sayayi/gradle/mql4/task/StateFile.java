@@ -0,0 +1,141 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+
+/**
+ * Simple persistent key/value state, stored as a sorted list of {@code key=value} lines. Keys must not contain a
+ * {@code '='} character; values must not contain line breaks. If a key occurs more than once, the last occurrence
+ * wins, which allows for appending entries without rewriting the file.
+ *
+ * @author Jeroen Gremmen
+ */
+public final class StateFile
+{
+  private static final Logger LOGGER = Logging.getLogger(StateFile.class);
+
+
+  private StateFile() {
+  }
+
+
+  /**
+   * Load the state from the given file. A missing or unreadable file results in an empty state.
+   *
+   * @param file  state file
+   *
+   * @return  sorted, modifiable map, never {@code null}
+   */
+  public static Map<String,String> load(File file)
+  {
+    final Map<String,String> state = new TreeMap<>();
+
+    if (file.isFile())
+    {
+      try(BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+        String line;
+
+        while((line = reader.readLine()) != null)
+        {
+          final int eqIdx = line.indexOf('=');
+          if (eqIdx > 0)
+            state.put(line.substring(0, eqIdx), line.substring(eqIdx + 1));
+        }
+      } catch(final IOException ex) {
+        LOGGER.warn("failed to read state file {}", file, ex);
+        state.clear();
+      }
+    }
+
+    return state;
+  }
+
+
+  /**
+   * Store the state to the given file. The file is replaced atomically, so a concurrent or cancelled build never
+   * sees a partially written state file.
+   *
+   * @param file   state file
+   * @param state  state to store
+   */
+  public static void store(File file, Map<String,String> state)
+  {
+    final Path path = file.toPath();
+
+    try {
+      Files.createDirectories(path.getParent());
+
+      final Path tmpFile = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+
+      try {
+        try(BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+          for(final Entry<String,String> entry: new TreeMap<>(state).entrySet())
+            writer.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+
+        Files.move(tmpFile, path, REPLACE_EXISTING, ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+    } catch(final IOException ex) {
+      LOGGER.warn("failed to write state file {}", file, ex);
+    }
+  }
+
+
+  /**
+   * Append a single entry to the given file, overriding previous entries with the same key. Unlike
+   * {@link #store(File, Map)} this is cheap enough to be called for every compiled file. If the build is killed while
+   * appending, the partially written line results in a lost or unmatched entry only.
+   *
+   * @param file   state file
+   * @param key    key
+   * @param value  value
+   */
+  public static synchronized void append(File file, String key, String value)
+  {
+    final Path path = file.toPath();
+
+    try {
+      Files.createDirectories(path.getParent());
+
+      try(BufferedWriter writer = Files.newBufferedWriter(path, UTF_8, CREATE, APPEND)) {
+        writer.append(key).append('=').append(value).append('\n');
+      }
+    } catch(final IOException ex) {
+      LOGGER.warn("failed to append to state file {}", file, ex);
+    }
+  }
+}
@@ -64,6 +64,20 @@ public class Wine
   @Getter
   private boolean enabled;
 
+  /**
+   * <p>
+   *   {@code true}, runs each parallel compilation in its own wine prefix. The prefixes are cloned from a template
+   *   prefix, which is initialized once and kept in the gradle user home directory. {@code false}, all compilations
+   *   share the wine prefix configured with {@link #prefix}.
+   * </p>
+   *
+   * <p>
+   *   The default is {@code false}.
+   * </p>
+   */
+  @Getter
+  private boolean pooled;
+
 
   public Wine(Project project) {
     this.project = project;
@@ -128,4 +142,14 @@ public class Wine
   public void setEnabled(String enabled) {
     this.enabled = Boolean.parseBoolean(enabled);
   }
+
+
+  public void setPooled(boolean pooled) {
+    this.pooled = pooled;
+  }
+
+
+  public void setPooled(String pooled) {
+    this.pooled = Boolean.parseBoolean(pooled);
+  }
 }
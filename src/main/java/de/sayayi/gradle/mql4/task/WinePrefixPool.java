@@ -0,0 +1,269 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.process.internal.ExecAction;
+import org.gradle.process.internal.ExecActionFactory;
+
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * <p>
+ *   Pool of wine prefixes, one for each parallel compile slot. Every prefix in the pool runs its own wineserver so
+ *   concurrent compilations do not serialize on a single server.
+ * </p>
+ *
+ * <p>
+ *   A template prefix is initialized once (using {@code wineboot}) and shared between builds. The worker prefixes are
+ *   cloned from the template: the files in {@code drive_c/windows}, which make up most of the prefix and are never
+ *   written by a compilation, are hard linked to the template. The registry, ini files and everything else wine may
+ *   modify in place are copied. The worker prefixes are kept in the build directory, so they are only cloned once.
+ * </p>
+ *
+ * @author Jeroen Gremmen
+ */
+@ToString(of = { "templateDir", "poolDir", "size" })
+public class WinePrefixPool
+{
+  private static final Logger LOGGER = Logging.getLogger(WinePrefixPool.class);
+
+  @Getter
+  private final File templateDir;
+
+  @Getter
+  private final File poolDir;
+
+  @Getter
+  private int size;
+
+  private final BlockingQueue<File> available = new LinkedBlockingQueue<>();
+
+
+  public WinePrefixPool(File templateDir, File poolDir)
+  {
+    this.templateDir = templateDir;
+    this.poolDir = poolDir;
+  }
+
+
+  /**
+   * Make sure the template prefix exists and provide at least {@code size} worker prefixes.
+   *
+   * @param execActionFactory  factory for running wine
+   * @param wine               wine configuration
+   * @param size               number of worker prefixes required
+   */
+  public synchronized void prepare(ExecActionFactory execActionFactory, Wine wine, int size)
+  {
+    if (this.size >= size)
+      return;
+
+    try {
+      // the template is shared between builds (and gradle processes)
+      initializePrefix(execActionFactory, wine, templateDir);
+
+      for(int slot = this.size + 1; slot <= size; slot++)
+      {
+        final File prefix = new File(poolDir, "slot-" + slot);
+
+        if (!isInitialized(prefix))
+        {
+          LOGGER.debug("clone wine prefix {} from template {}", prefix, templateDir);
+          clonePrefix(templateDir.toPath(), prefix.toPath());
+        }
+
+        available.add(prefix);
+      }
+
+      this.size = size;
+    } catch(final IOException ex) {
+      throw new GradleException("failed to prepare wine prefix pool in " + poolDir.getAbsolutePath(), ex);
+    }
+  }
+
+
+  /**
+   * Acquire a worker prefix. If all prefixes are in use, this method blocks until a prefix has been released.
+   *
+   * @return  wine prefix, never {@code null}
+   *
+   * @throws InterruptedException  if the thread was interrupted while waiting for a prefix
+   */
+  public File acquire() throws InterruptedException {
+    return available.take();
+  }
+
+
+  public void release(File prefix) {
+    available.add(prefix);
+  }
+
+
+  /**
+   * Initialize the given wine prefix using {@code wineboot}, unless it has been initialized before. The
+   * initialization is guarded by a file lock, as the prefix may be shared between gradle processes.
+   *
+   * @param execActionFactory  factory for running wine
+   * @param wine               wine configuration
+   * @param prefix             wine prefix to initialize
+   *
+   * @throws IOException  if the lock file could not be created
+   */
+  public static void initializePrefix(ExecActionFactory execActionFactory, Wine wine, File prefix) throws IOException
+  {
+    if (isInitialized(prefix))
+      return;
+
+    final File prefixParent = prefix.getAbsoluteFile().getParentFile();
+    if (!prefixParent.isDirectory())
+      prefixParent.mkdirs();
+
+    try(RandomAccessFile lockFile = new RandomAccessFile(new File(prefixParent, prefix.getName() + ".lock"), "rw");
+        FileChannel channel = lockFile.getChannel();
+        FileLock lock = channel.lock()) {
+      if (!isInitialized(prefix))
+      {
+        LOGGER.info("initializing wine prefix {}", prefix);
+
+        runWithPrefix(execActionFactory, prefix, wine.getExecutable(), "wineboot", "--init");
+
+        // wait for wineserver to terminate, which guarantees that the registry has been written
+        runWithPrefix(execActionFactory, prefix, getWineserver(wine.getExecutable()), "-w");
+
+        if (!isInitialized(prefix))
+          throw new GradleException("failed to initialize wine prefix " + prefix.getAbsolutePath());
+      }
+    }
+  }
+
+
+  private static void runWithPrefix(ExecActionFactory execActionFactory, File prefix, String executable,
+      String... args)
+  {
+    final ExecAction execAction = execActionFactory.newExecAction();
+    final Map<String,Object> environment = execAction.getEnvironment();
+
+    execAction.setExecutable(executable);
+    execAction.setArgs(Arrays.asList(args));
+    execAction.setIgnoreExitValue(true);
+
+    environment.put("WINEDEBUG", "-all");
+    environment.put("WINEPREFIX", prefix.getAbsolutePath());
+    environment.put("WINEARCH", "win32");
+
+    execAction.execute();
+  }
+
+
+  protected static String getWineserver(String wineExecutable)
+  {
+    final File wine = new File(wineExecutable);
+    final File parent = wine.getParentFile();
+
+    return parent == null ? "wineserver" : new File(parent, "wineserver").getAbsolutePath();
+  }
+
+
+  protected static boolean isInitialized(File prefix) {
+    return new File(prefix, "system.reg").isFile() && new File(prefix, "dosdevices").isDirectory();
+  }
+
+
+  protected void clonePrefix(Path template, Path prefix) throws IOException
+  {
+    Files.walkFileTree(template, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+      {
+        Files.createDirectories(prefix.resolve(template.relativize(dir)));
+        return FileVisitResult.CONTINUE;
+      }
+
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+      {
+        final Path target = prefix.resolve(template.relativize(file));
+        Files.deleteIfExists(target);
+
+        if (attrs.isSymbolicLink())
+        {
+          // dosdevices contains (relative) links to drive_c and the root file system; keep them as they are
+          Files.createSymbolicLink(target, Files.readSymbolicLink(file));
+        }
+        else if (!isLinkable(template.relativize(file)) || !createLink(target, file))
+        {
+          // a file written in place by wine would change the template and all other prefixes cloned from it
+          Files.copy(file, target, COPY_ATTRIBUTES);
+        }
+
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+
+  /**
+   * Tells whether the given template file can be shared with the worker prefixes. The files in
+   * {@code drive_c/windows} (dlls, executables, fonts, ...) are not modified by wine after the prefix has been
+   * initialized, with the exception of the ini files. Registry files ({@code *.reg}) are never shared.
+   *
+   * @param relativePath  path of the file, relative to the template prefix
+   *
+   * @return  {@code true} if the file can be hard linked, {@code false} if it must be copied
+   */
+  protected static boolean isLinkable(Path relativePath)
+  {
+    final String path = relativePath.toString().replace('\\', '/').toLowerCase();
+
+    return path.startsWith("drive_c/windows/") && !path.endsWith(".ini") && !path.endsWith(".reg");
+  }
+
+
+  private static boolean createLink(Path link, Path existing)
+  {
+    try {
+      Files.createLink(link, existing);
+      return true;
+    } catch(final IOException | UnsupportedOperationException ex) {
+      // eg. template and pool on different file systems
+      LOGGER.debug("failed to link {} to {}; copying instead", link, existing, ex);
+      return false;
+    }
+  }
+}
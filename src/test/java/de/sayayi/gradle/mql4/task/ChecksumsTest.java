@@ -0,0 +1,91 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class ChecksumsTest
+{
+  private static final String SHA256_ABC = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+
+  @Test
+  public void testChecksum(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File file = temporaryFolder.createFile("abc.txt");
+    Files.write(file.toPath(), "abc".getBytes("US-ASCII"));
+
+    assertEquals(SHA256_ABC, Checksums.checksum(file));
+  }
+
+
+  @Test
+  public void testChecksumsReused(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File file = temporaryFolder.createFile("abc.txt");
+    Files.write(file.toPath(), "abc".getBytes("US-ASCII"));
+
+    final File checksumsFile = new File(temporaryFolder.getRoot(), "checksums.properties");
+    final Map<String,File> files = Collections.singletonMap("abc", file);
+
+    assertEquals(SHA256_ABC, Checksums.checksums(files, checksumsFile).get("abc"));
+
+    // a recorded checksum is trusted as long as size and modification time match
+    StateFile.store(checksumsFile, Collections.singletonMap("abc", Checksums.getStamp(file) + "cached"));
+    assertEquals("cached", Checksums.checksums(files, checksumsFile).get("abc"));
+
+    file.setLastModified(file.lastModified() + 2000);
+    assertEquals(SHA256_ABC, Checksums.checksums(files, checksumsFile).get("abc"));
+  }
+
+
+  @Test
+  public void testChecksumCache(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File file = temporaryFolder.createFile("abc.txt");
+    Files.write(file.toPath(), "abc".getBytes("US-ASCII"));
+
+    final Map<String,String> cache = new HashMap<>();
+
+    assertEquals(SHA256_ABC, Checksums.checksum(file, cache));
+    assertEquals(Checksums.getStamp(file) + SHA256_ABC, cache.get(file.getAbsolutePath()));
+
+    cache.put(file.getAbsolutePath(), Checksums.getStamp(file) + "cached");
+    assertEquals("cached", Checksums.checksum(file, cache));
+
+    // changed files are read again
+    file.setLastModified(file.lastModified() + 2000);
+    assertEquals(SHA256_ABC, Checksums.checksum(file, cache));
+  }
+}
@@ -15,6 +15,7 @@
  */
 package de.sayayi.gradle.mql4.task;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.gradle.testkit.runner.TaskOutcome.SUCCESS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -23,7 +24,12 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.gradle.api.Project;
 import org.gradle.api.plugins.ExtensionContainer;
@@ -87,6 +93,148 @@ public class CompileMQL4TaskTest
   }
 
 
+  @Test
+  @Order(1)
+  public void testCheckTaskCreation() throws IOException
+  {
+    final Project project = ProjectBuilder.builder().withProjectDir(folder.getRoot()).build();
+
+    project.apply(Collections.<String,Object>singletonMap("plugin", "de.sayayi.gradle.mql4-plugin"));
+
+    final CheckMQL4Task task = (CheckMQL4Task)project.getTasks().getByName(CompileMQL4TaskPlugin.CHECK_MQL4_TASK_NAME);
+
+    assertEquals(new File(project.getBuildDir(), "mql4/checkMql4/report.txt"), task.getReportFile());
+    assertTrue(task.getEx4Files().isEmpty());
+  }
+
+
+  @Test
+  @Order(1)
+  public void testCheckReportCountsAllFiles() throws IOException
+  {
+    final Project project = ProjectBuilder.builder().withProjectDir(folder.getRoot()).build();
+
+    project.apply(Collections.<String,Object>singletonMap("plugin", "de.sayayi.gradle.mql4-plugin"));
+
+    final CheckMQL4Task task = (CheckMQL4Task)project.getTasks().getByName(CompileMQL4TaskPlugin.CHECK_MQL4_TASK_NAME);
+    final File logFile = new File(task.getStateDir(), CompileMQL4Task.DIAGNOSTICS_DIR + "/Indicators/Test1.log");
+
+    Files.createDirectories(logFile.getParentFile().toPath());
+    Files.createFile(logFile.toPath());
+
+    final Map<String,Mql4Dependency> mql4Files = new HashMap<>();
+    mql4Files.put("Indicators/Test1.mq4", null);
+    mql4Files.put("Indicators/Test2.mq4", null);
+
+    task.afterCompile(mql4Files);
+
+    final List<String> report = Files.readAllLines(task.getReportFile().toPath(), UTF_8);
+
+    assertEquals("Indicators/Test2.mq4: no diagnostics log", report.get(0));
+    assertEquals("2 file(s) checked: 0 error(s), 0 warning(s), 1 without diagnostics log", report.get(1));
+  }
+
+
+  @Test
+  @Order(1)
+  public void testDependencies() throws IOException
+  {
+    final Project project = ProjectBuilder.builder().withProjectDir(folder.getRoot()).build();
+
+    project.apply(Collections.<String,Object>singletonMap("plugin", "de.sayayi.gradle.mql4-plugin"));
+    project.getExtensions().getByType(CompileMQL4Extension.class).setMql4Dir(new File(MQL4_BASE, "MQL4"));
+
+    final Mql4DependenciesTask task =
+        (Mql4DependenciesTask)project.getTasks().getByName(CompileMQL4TaskPlugin.MQL4_DEPENDENCIES_TASK_NAME);
+
+    task.setChanged(Collections.singletonList(new File(MQL4_BASE, "MQL4/Include/Inc2.mqh").getAbsolutePath()));
+    task.exportDependencies();
+
+    assertTrue(new File(task.getDestinationDir(), Mql4DependenciesTask.GRAPH_JSON_FILE).isFile());
+    assertTrue(new File(task.getDestinationDir(), Mql4DependenciesTask.GRAPH_DOT_FILE).isFile());
+
+    final String affected = new String(Files.readAllBytes(
+        new File(task.getDestinationDir(), Mql4DependenciesTask.AFFECTED_FILE).toPath()), UTF_8);
+
+    assertTrue(affected.contains("Indicators/Test1.mq4"));
+    assertTrue(affected.contains("Include/Inc1.mqh"));
+    assertFalse(affected.contains("Inc3.mqh"));
+  }
+
+
+  @Test
+  @Order(1)
+  public void testSourceSetTaskCreation() throws IOException
+  {
+    final Project project = ProjectBuilder.builder().withProjectDir(folder.getRoot()).build();
+
+    project.apply(Collections.<String,Object>singletonMap("plugin", "de.sayayi.gradle.mql4-plugin"));
+
+    final CompileMQL4Extension extension = project.getExtensions().getByType(CompileMQL4Extension.class);
+    extension.sourceSets(sourceSets -> sourceSets.create("strategies", sourceSet -> {
+      sourceSet.setMql4Dir("strategies/MQL4");
+      sourceSet.setIncludes(Collections.singletonList("Experts/*.mq4"));
+    }));
+
+    final CompileMQL4Task task = (CompileMQL4Task)project.getTasks().getByName("compileMql4Strategies");
+
+    assertEquals(project.file("strategies/MQL4"), task.getMql4Dir());
+    assertEquals(Collections.singletonList("Experts/*.mq4"), task.getIncludes());
+    assertEquals(new File(project.getBuildDir(), "mql4/compileMql4Strategies"), task.getStateDir());
+
+    // the default task is not affected by the source set
+    final CompileMQL4Task defaultTask =
+        (CompileMQL4Task)project.getTasks().getByName(CompileMQL4TaskPlugin.COMPILE_MQl4_TASK_NAME);
+    assertEquals(extension.getMql4Dir(), defaultTask.getMql4Dir());
+    assertEquals(extension.getIncludes(), defaultTask.getIncludes());
+  }
+
+
+  @Test
+  @Order(1)
+  public void testSourceSetOverlap() throws IOException
+  {
+    final Project project = ProjectBuilder.builder().withProjectDir(folder.getRoot()).build();
+
+    project.apply(Collections.<String,Object>singletonMap("plugin", "de.sayayi.gradle.mql4-plugin"));
+
+    final CompileMQL4Extension extension = project.getExtensions().getByType(CompileMQL4Extension.class);
+    extension.setMql4Dir(new File(MQL4_BASE, "MQL4"));
+    extension.setIncludes(new String[] { "Indicators/*.mq4", "Samples/*.mq4" });
+
+    // source set without mql4Dir; uses the MQL4 directory of the extension
+    extension.sourceSets(sourceSets -> sourceSets.create("samples",
+        sourceSet -> sourceSet.setIncludes(Collections.singletonList("Samples/*.mq4"))));
+
+    final CompileMQL4Task defaultTask =
+        (CompileMQL4Task)project.getTasks().getByName(CompileMQL4TaskPlugin.COMPILE_MQl4_TASK_NAME);
+    final CompileMQL4Task samplesTask = (CompileMQL4Task)project.getTasks().getByName("compileMql4Samples");
+
+    final Set<File> defaultEx4Files = defaultTask.getEx4Files().getFiles();
+    final Set<File> samplesEx4Files = samplesTask.getEx4Files().getFiles();
+
+    assertTrue(defaultEx4Files.contains(new File(MQL4_BASE, "MQL4/Indicators/Test1.ex4").getAbsoluteFile()));
+    assertTrue(samplesEx4Files.contains(new File(MQL4_BASE, "MQL4/Samples/Test5.ex4").getAbsoluteFile()));
+
+    // files selected by the source set are not compiled by compileMql4
+    assertTrue(Collections.disjoint(defaultEx4Files, samplesEx4Files));
+
+    // source sets covering all files leave nothing to compile for compileMql4
+    extension.sourceSets(sourceSets -> sourceSets.create("indicators",
+        sourceSet -> sourceSet.setIncludes(Collections.singletonList("Indicators/*.mq4"))));
+
+    assertTrue(defaultTask.getEx4Files().isEmpty());
+    assertTrue(defaultTask.getMq4Files().isEmpty());
+
+    // the syntax check covers the files of all source sets
+    final Set<File> checkedFiles =
+        project.getTasks().getByName(CompileMQL4TaskPlugin.CHECK_MQL4_TASK_NAME).getInputs().getFiles().getFiles();
+
+    assertTrue(checkedFiles.contains(new File(MQL4_BASE, "MQL4/Indicators/Test1.mq4").getAbsoluteFile()));
+    assertTrue(checkedFiles.contains(new File(MQL4_BASE, "MQL4/Samples/Test5.mq4").getAbsoluteFile()));
+  }
+
+
   protected GradleRunner createRunner(String[] tasks, String build) throws IOException
   {
     try(FileWriter buildFile = new FileWriter(new File(folder.getRoot(), "build.gradle"))) {
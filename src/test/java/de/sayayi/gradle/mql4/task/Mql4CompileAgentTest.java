@@ -0,0 +1,189 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4CompileAgentTest
+{
+  private static final File MQL4_DIR = new File("src/test/resources/MQL4");
+
+  private File mql4Dir;
+  private Mql4CompileAgent agent;
+  private boolean compileResult;
+  private long compileDelay;
+
+
+  @BeforeEach
+  public void prepare(TemporaryFolder temporaryFolder) throws IOException
+  {
+    mql4Dir = temporaryFolder.createDirectory("MQL4");
+
+    final Path source = MQL4_DIR.toPath();
+    try(Stream<Path> files = Files.walk(source)) {
+      for(final Path file: (Iterable<Path>)files::iterator)
+      {
+        final Path target = mql4Dir.toPath().resolve(source.relativize(file).toString());
+        if (Files.isDirectory(file))
+          Files.createDirectories(target);
+        else
+          Files.copy(file, target);
+      }
+    }
+
+    compileResult = true;
+    compileDelay = 0;
+
+    // stub compiler: the ex4 file lists all files received by the agent
+    agent = new Mql4CompileAgent((dir, relativePath) -> {
+      if (compileDelay > 0)
+      {
+        try {
+          Thread.sleep(compileDelay);
+        } catch(final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      final Path mq4File = dir.toPath().resolve(relativePath);
+      final String mq4Name = mq4File.getFileName().toString();
+
+      try(Stream<Path> files = Files.walk(dir.toPath())) {
+        final String received = files
+            .filter(Files::isRegularFile)
+            .map(f -> f.getFileName().toString())
+            .sorted()
+            .collect(Collectors.joining(","));
+
+        if (compileResult)
+          Files.write(mq4File.resolveSibling(mq4Name.replace(".mq4", ".ex4")), received.getBytes(UTF_8));
+      }
+
+      Files.write(mq4File.resolveSibling(mq4Name.replace(".mq4", ".log")),
+          ("\ufeffcompiled " + relativePath).getBytes(UTF_16LE));
+
+      return compileResult;
+    }, new InetSocketAddress("127.0.0.1", 0), 2);
+
+    agent.start();
+  }
+
+
+  @AfterEach
+  public void shutdown() {
+    agent.stop();
+  }
+
+
+  private Mql4RemoteCompiler createRemoteCompiler() throws IOException {
+    return new Mql4RemoteCompiler(new URL("http://127.0.0.1:" + agent.getAddress().getPort() + "/"));
+  }
+
+
+  @Test
+  public void testCompileSuccess() throws IOException
+  {
+    final File test2 = new File(mql4Dir, "Indicators/Test2.mq4");
+    final boolean success = createRemoteCompiler()
+        .compile(mql4Dir, emptyList(), "Indicators/Test2.mq4", Mql4Dependency.from(mql4Dir, test2));
+
+    assertTrue(success);
+
+    final File ex4File = new File(mql4Dir, "Indicators/Test2.ex4");
+    assertTrue(ex4File.exists());
+    assertEquals("Inc1.mqh,Inc2.mqh,Inc3.mqh,Test2.mq4", new String(Files.readAllBytes(ex4File.toPath()), UTF_8));
+    assertTrue(new File(mql4Dir, "Indicators/Test2.log").exists());
+  }
+
+
+  @Test
+  public void testCompileFailure() throws IOException
+  {
+    compileResult = false;
+
+    final File test1 = new File(mql4Dir, "Indicators/Test1.mq4");
+    final boolean success = createRemoteCompiler()
+        .compile(mql4Dir, emptyList(), "Indicators/Test1.mq4", Mql4Dependency.from(mql4Dir, test1));
+
+    assertFalse(success);
+    assertFalse(new File(mql4Dir, "Indicators/Test1.ex4").exists());
+    assertTrue(new File(mql4Dir, "Indicators/Test1.log").exists());
+  }
+
+
+  @Test
+  public void testCompileTimeout() throws IOException
+  {
+    compileDelay = 5000;
+
+    final URL agentUrl = new URL("http://127.0.0.1:" + agent.getAddress().getPort() + "/");
+    final File test1 = new File(mql4Dir, "Indicators/Test1.mq4");
+
+    final IOException ex = assertThrows(IOException.class, () -> new Mql4RemoteCompiler(agentUrl, 200)
+        .compile(mql4Dir, emptyList(), "Indicators/Test1.mq4", Mql4Dependency.from(mql4Dir, test1)));
+
+    assertTrue(ex.getMessage().contains(agentUrl.toString()));
+    assertFalse(new File(mql4Dir, "Indicators/Test1.ex4").exists());
+  }
+
+
+  @Test
+  @EnabledOnOs({ OS.LINUX, OS.MAC })
+  public void testMetaeditorTimeout() throws IOException
+  {
+    // stub metaeditor which never finishes
+    final File metaeditor = new File(mql4Dir.getParentFile(), "metaeditor.sh");
+    Files.write(metaeditor.toPath(), "#!/bin/sh\nsleep 30\n".getBytes(UTF_8));
+    assertTrue(metaeditor.setExecutable(true));
+
+    final long start = System.currentTimeMillis();
+    final IOException ex = assertThrows(IOException.class, () -> new Mql4CompileAgent.MetaeditorCompiler(
+        metaeditor.getAbsolutePath(), 1).compile(mql4Dir, "Indicators/Test1.mq4"));
+
+    assertTrue(ex.getMessage().contains("Indicators/Test1.mq4"));
+    assertTrue(System.currentTimeMillis() - start < 10000);
+  }
+}
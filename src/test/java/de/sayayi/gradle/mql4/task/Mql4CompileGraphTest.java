@@ -0,0 +1,96 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4CompileGraphTest
+{
+  private static final File MQL4_DIR = new File("src/test/resources/MQL4");
+
+
+  @Test
+  public void testLibrariesFirst()
+  {
+    final Map<String,Mql4Dependency> mql4Files = new LinkedHashMap<>();
+    mql4Files.put("Indicators/Test1.mq4", Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, "Indicators/Test1.mq4")));
+    mql4Files.put("Libraries/TestLib.mq4", Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, "Libraries/TestLib.mq4")));
+    mql4Files.put("Samples/Test5.mq4", Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, "Samples/Test5.mq4")));
+
+    final Mql4CompileGraph graph = new Mql4CompileGraph(mql4Files);
+
+    assertEquals(asList(asList("Indicators/Test1.mq4", "Libraries/TestLib.mq4"), asList("Samples/Test5.mq4")),
+        graph.getLevels());
+    assertEquals(singleton("Libraries/TestLib.mq4"), graph.getLibraries("Samples/Test5.mq4"));
+    assertTrue(graph.getLibraries("Indicators/Test1.mq4").isEmpty());
+    assertTrue(graph.isLibrary("Libraries/TestLib.mq4"));
+    assertFalse(graph.isLibrary("Samples/Test5.mq4"));
+    assertTrue(graph.getCyclic().isEmpty());
+  }
+
+
+  @Test
+  public void testImportCycle(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mql4Dir = temporaryFolder.createDirectory("MQL4");
+    final File libraries = new File(mql4Dir, "Libraries");
+    final File experts = new File(mql4Dir, "Experts");
+
+    Files.createDirectories(libraries.toPath());
+    Files.createDirectories(experts.toPath());
+
+    write(new File(libraries, "A.mq4"), "#property library\r\n#import \"B.ex4\"\r\n#import\r\n");
+    write(new File(libraries, "B.mq4"), "#property library\r\n#import \"A.ex4\"\r\n#import\r\n");
+    write(new File(experts, "EA.mq4"), "#property strict\r\n");
+
+    final Map<String,Mql4Dependency> mql4Files = new LinkedHashMap<>();
+    mql4Files.put("Experts/EA.mq4", Mql4Dependency.from(mql4Dir, new File(experts, "EA.mq4")));
+    mql4Files.put("Libraries/A.mq4", Mql4Dependency.from(mql4Dir, new File(libraries, "A.mq4")));
+    mql4Files.put("Libraries/B.mq4", Mql4Dependency.from(mql4Dir, new File(libraries, "B.mq4")));
+
+    final Mql4CompileGraph graph = new Mql4CompileGraph(mql4Files);
+
+    assertEquals(asList(asList("Experts/EA.mq4"), asList("Libraries/A.mq4", "Libraries/B.mq4")), graph.getLevels());
+    assertEquals(2, graph.getCyclic().size());
+  }
+
+
+  private static void write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(ISO_8859_1));
+  }
+}
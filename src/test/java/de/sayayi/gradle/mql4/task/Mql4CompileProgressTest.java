@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+public class Mql4CompileProgressTest
+{
+  @Test
+  public void testProgress()
+  {
+    final Map<String,String> durations = new HashMap<>();
+    durations.put("Experts/A.mq4", "20000");
+    durations.put("Experts/B.mq4", "40000");
+
+    final List<String> status = new ArrayList<>();
+    final Mql4CompileProgress progress = new Mql4CompileProgress(durations, 2, status::add);
+
+    progress.schedule("Experts/A.mq4");
+    progress.schedule("Experts/B.mq4");
+    progress.schedule("Experts/C.mq4");
+    assertEquals("0/3 compiled, 0 failed", progress.getStatus());
+
+    progress.started("Experts/A.mq4");
+    progress.started("Experts/B.mq4");
+    assertEquals("0/3 compiled, 0 failed, compiling Experts/A.mq4 (+1)", progress.getStatus());
+
+    progress.finished("Experts/A.mq4", false, 30000);
+    assertEquals("1/3 compiled, 1 failed, compiling Experts/B.mq4, ETA 40s", progress.getStatus());
+
+    progress.finished("Experts/B.mq4", true, 40000);
+    progress.started("Experts/C.mq4");
+    assertEquals("2/3 compiled, 1 failed, compiling Experts/C.mq4, ETA 35s", progress.getStatus());
+
+    progress.finished("Experts/C.mq4", true, 1000);
+    assertEquals("3/3 compiled, 1 failed", progress.getStatus());
+    assertEquals(9, status.size());
+  }
+
+
+  @Test
+  public void testFormatDuration()
+  {
+    assertEquals("1s", Mql4CompileProgress.formatDuration(1));
+    assertEquals("59s", Mql4CompileProgress.formatDuration(59000));
+    assertEquals("2m 05s", Mql4CompileProgress.formatDuration(125000));
+    assertEquals("1h 01m", Mql4CompileProgress.formatDuration(3660000));
+  }
+}
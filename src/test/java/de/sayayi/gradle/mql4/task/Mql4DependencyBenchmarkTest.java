@@ -0,0 +1,170 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * Measures the memory footprint of the dependency graphs and the cost of an up-to-date check for a generated tree of
+ * 100,000 files. Only runs with {@code -Dmql4.benchmark=true}, see README.
+ *
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+@EnabledIfSystemProperty(named = "mql4.benchmark", matches = "true")
+public class Mql4DependencyBenchmarkTest
+{
+  private static final int ROOTS = 10000;
+  private static final int LAYERS = 6;
+  private static final int HEADERS_PER_LAYER = 15000;
+  private static final long MB = 1024L * 1024L;
+
+
+  @Test
+  public void testUpToDateCheck(TemporaryFolder temporaryFolder) throws IOException, InterruptedException
+  {
+    final File mql4Dir = temporaryFolder.createDirectory("MQL4");
+    final List<File> roots = generateTree(mql4Dir.toPath());
+
+    final long baseHeap = getUsedHeap();
+    final Mql4IncludeResolver resolver = new Mql4IncludeResolver(mql4Dir, emptyList());
+    final List<Mql4Dependency> dependencies = new ArrayList<>();
+
+    long start = System.nanoTime();
+    long allocated = getAllocatedBytes();
+
+    for(final File root: roots)
+      dependencies.add(Mql4Dependency.from(resolver, root));
+
+    System.out.printf("parse: %d ms, %d MB allocated%n",
+        (System.nanoTime() - start) / 1000000, (getAllocatedBytes() - allocated) / MB);
+    System.out.printf("heap retained by the graphs: %d MB%n", (getUsedHeap() - baseHeap) / MB);
+
+    for(int run = 1; run <= 3; run++)
+    {
+      start = System.nanoTime();
+      allocated = getAllocatedBytes();
+
+      int dirty = 0;
+      long closureFiles = 0;
+
+      // 10 changed headers in the middle layer
+      for(int n = 0; n < 10; n++)
+      {
+        final File changed = new File(mql4Dir, "Include/gen/l3/H" + (n * 997) + ".mqh");
+        dependencies.forEach(dependency -> dependency.markDirty(changed));
+      }
+
+      for(final Mql4Dependency dependency: dependencies)
+      {
+        if (dependency.isDirty())
+          dirty++;
+
+        closureFiles += dependency.streamDependenciesWithSelf().count();
+      }
+
+      System.out.printf("up-to-date check %d: %d ms, %d MB allocated%n",
+          run, (System.nanoTime() - start) / 1000000, (getAllocatedBytes() - allocated) / MB);
+
+      assertEquals(392, dirty);
+      assertEquals(2516100, closureFiles);
+    }
+  }
+
+
+  /**
+   * Generate 10,000 experts, each including 4 of 15,000 headers. The headers form 6 layers and each header includes
+   * 2 headers of the next layer.
+   */
+  private static List<File> generateTree(Path mql4Dir) throws IOException
+  {
+    final Random random = new Random(42);
+    final List<File> roots = new ArrayList<>();
+
+    Files.createDirectories(mql4Dir.resolve("Experts"));
+    for(int layer = 0; layer < LAYERS; layer++)
+      Files.createDirectories(mql4Dir.resolve("Include/gen/l" + layer));
+
+    for(int layer = 0; layer < LAYERS; layer++)
+      for(int n = 0; n < HEADERS_PER_LAYER; n++)
+      {
+        final StringBuilder header = new StringBuilder("#property strict\r\n");
+
+        if (layer + 1 < LAYERS)
+          for(int k = 0; k < 2; k++)
+          {
+            header.append("#include <gen/l").append(layer + 1).append("/H")
+                  .append(random.nextInt(HEADERS_PER_LAYER)).append(".mqh>\r\n");
+          }
+
+        header.append("int f").append(n).append("() { return ").append(n).append("; }\r\n");
+        Files.write(mql4Dir.resolve("Include/gen/l" + layer + "/H" + n + ".mqh"), header.toString().getBytes(US_ASCII));
+      }
+
+    for(int n = 0; n < ROOTS; n++)
+    {
+      final StringBuilder expert = new StringBuilder("#property strict\r\n");
+
+      for(int k = 0; k < 4; k++)
+        expert.append("#include <gen/l0/H").append(random.nextInt(HEADERS_PER_LAYER)).append(".mqh>\r\n");
+
+      expert.append("void OnTick() {}\r\n");
+
+      final Path root = mql4Dir.resolve("Experts/E" + n + ".mq4");
+      Files.write(root, expert.toString().getBytes(US_ASCII));
+      roots.add(root.toFile());
+    }
+
+    return roots;
+  }
+
+
+  private static long getUsedHeap() throws InterruptedException
+  {
+    for(int n = 0; n < 4; n++)
+    {
+      System.gc();
+      Thread.sleep(100);
+    }
+
+    final Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+  }
+}
@@ -1,5 +1,6 @@
 package de.sayayi.gradle.mql4.task;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -7,15 +8,25 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.sayayi.gradle.mql4.task.Mql4Dependency.Kind;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
 
 
 /**
  * @author Jeroen Gremmen
  */
+@ExtendWith(TemporaryFolderExtension.class)
 public class Mql4DependencyTest
 {
   private static final File MQL4_DIR = new File("src/test/resources/MQL4");
@@ -23,10 +34,14 @@ public class Mql4DependencyTest
   private static final File TEST1_MQ4 = new File(MQL4_DIR, "Indicators/Test1.mq4");
   private static final File TEST2_MQ4 = new File(MQL4_DIR, "Indicators/Test2.mq4");
   private static final File TEST3_MQ4 = new File(MQL4_DIR, "Indicators/Test3.mq4");
+  private static final File TEST4_MQ4 = new File(MQL4_DIR, "Indicators/Test4.mq4");
+  private static final File TEST5_MQ4 = new File(MQL4_DIR, "Samples/Test5.mq4");
+  private static final File TEST6_MQ4 = new File(MQL4_DIR, "Samples/Test6.mq4");
 
   private static final File INC1_MQH = new File(MQL4_DIR, "Include/Inc1.mqh");
   private static final File INC2_MQH = new File(MQL4_DIR, "Include/Inc2.mqh");
   private static final File INC3_MQH = new File(MQL4_DIR, "Indicators/Inc3.mqh");
+  private static final File INC4_MQH = new File(MQL4_DIR, "Include/Inc4.mqh");
 
 
   @Test
@@ -34,7 +49,7 @@ public class Mql4DependencyTest
   {
     assertNull(Mql4Dependency.from(MQL4_DIR, null));
     assertNull(Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, "Experts/EA.mq4")));
-    assertNull(Mql4Dependency.from(null, TEST1_MQ4));
+    assertNull(Mql4Dependency.from((File)null, TEST1_MQ4));
     assertNull(Mql4Dependency.from(TEST1_MQ4, TEST2_MQ4));
     assertNull(Mql4Dependency.from(new File(MQL4_DIR, "Include"), TEST1_MQ4));
   }
@@ -89,6 +104,84 @@ public class Mql4DependencyTest
   }
 
 
+  @Test
+  public void testConditionalIncludes()
+  {
+    final Mql4Dependency dep4 = Mql4Dependency.from(MQL4_DIR, TEST4_MQ4);
+
+    assertNotNull(dep4);
+
+    final Set<File> deps = dep4.getDependencies();
+    assertEquals(4, deps.size());
+    assertTrue(deps.contains(INC1_MQH));
+    assertTrue(deps.contains(INC2_MQH));
+    assertTrue(deps.contains(INC3_MQH));
+    assertTrue(deps.contains(INC4_MQH));
+  }
+
+
+  @Test
+  public void testMarkDirtyInactiveInclude()
+  {
+    final Mql4Dependency dep4 = Mql4Dependency.from(MQL4_DIR, TEST4_MQ4);
+
+    dep4.markDirty(new File(MQL4_DIR, "Include/IncDisabled1.mqh"));
+    dep4.markDirty(new File(MQL4_DIR, "Indicators/IncDisabled2.mqh"));
+    assertFalse(dep4.isDirty());
+
+    dep4.markDirty(INC3_MQH);
+    assertTrue(dep4.isDirty());
+  }
+
+
+  @Test
+  public void testResourcesAndImports()
+  {
+    final Mql4Dependency dep5 = Mql4Dependency.from(MQL4_DIR, TEST5_MQ4);
+
+    assertNotNull(dep5);
+
+    final Set<File> deps = dep5.getDependencies();
+    assertEquals(4, deps.size());
+
+    final Set<File> resources = dep5.getDependencies(Kind.RESOURCE);
+    assertEquals(2, resources.size());
+    assertTrue(resources.contains(new File(MQL4_DIR, "Images/Logo.bmp")));
+    assertTrue(resources.contains(new File(MQL4_DIR, "Samples/Sound.wav")));
+
+    final Set<File> imports = dep5.getDependencies(Kind.IMPORT);
+    assertEquals(2, imports.size());
+    assertTrue(imports.contains(new File(MQL4_DIR, "Libraries/TestLib.ex4")));
+    assertTrue(imports.contains(new File(MQL4_DIR, "Libraries/Missing.ex4")));
+
+    dep5.markDirty(new File(MQL4_DIR, "Libraries/TestLib.ex4"));
+    assertTrue(dep5.isDirty());
+  }
+
+
+  @Test
+  public void testIncludeDirs()
+  {
+    final File sharedInclude = new File("src/test/resources/SharedInclude");
+
+    final Mql4Dependency dep6 = Mql4Dependency.from(
+        new Mql4IncludeResolver(MQL4_DIR, Collections.singletonList(sharedInclude)), TEST6_MQ4);
+
+    assertNotNull(dep6);
+
+    final Set<File> deps = dep6.getDependencies();
+    assertEquals(3, deps.size());
+    assertTrue(deps.contains(new File(sharedInclude, "Shared.mqh")));
+    assertTrue(deps.contains(INC1_MQH));
+    assertTrue(deps.contains(INC2_MQH));
+    assertTrue(dep6.getMissingDependencies().isEmpty());
+
+    // without include dirs, the shared include is missing in MQL4/Include
+    final Mql4Dependency dep6NoIncludeDirs = Mql4Dependency.from(MQL4_DIR, TEST6_MQ4);
+    assertTrue(dep6NoIncludeDirs.getMissingDependencies().containsKey(new File(MQL4_DIR, "Include/Shared.mqh")));
+  }
+
+
   @Test
   public void testMarkDirtySelf()
   {
@@ -144,4 +237,53 @@ public class Mql4DependencyTest
 
     assertEquals("Inc1.mqh,Inc2.mqh,Inc3.mqh,Test2.mq4", filenames);
   }
+
+
+  @Test
+  public void testSharedResolver()
+  {
+    final Mql4IncludeResolver resolver = new Mql4IncludeResolver(MQL4_DIR, Collections.emptyList());
+    final Mql4Dependency dep1 = Mql4Dependency.from(resolver, TEST1_MQ4);
+    final Mql4Dependency dep2 = Mql4Dependency.from(resolver, TEST2_MQ4);
+
+    // Test1, Test2, Inc1, Inc2 and Inc3 are registered once
+    assertEquals(5, resolver.getPaths().size());
+
+    final Set<Mql4Dependency> children = dep2.getChildren();
+    assertEquals(2, children.size());
+    assertEquals(children, dep2.getChildren());
+    assertTrue(children.stream().allMatch(child -> child.getKind() == Kind.INCLUDE));
+
+    final Mql4Dependency inc1 = children.iterator().next();
+    assertTrue(inc1.isSelf(INC1_MQH));
+    assertEquals(Collections.singleton(INC2_MQH), inc1.getDependencies());
+
+    // dirty flags are kept per root file
+    dep1.markDirty(INC2_MQH);
+    assertTrue(dep1.isDirty());
+    assertFalse(dep2.isDirty());
+
+    dep2.markDirty(INC3_MQH);
+    assertTrue(dep2.isDirty());
+    assertFalse(inc1.isDirty());
+  }
+
+
+  @Test
+  public void testIncludeDirectoryIsMissing(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mql4Dir = temporaryFolder.createDirectory("MQL4");
+    final File includeDir = new File(mql4Dir, "Include/Arrays");
+    final File mq4File = new File(mql4Dir, "Indicators/Test.mq4");
+
+    assertTrue(includeDir.mkdirs());
+    assertTrue(mq4File.getParentFile().mkdirs());
+    Files.write(mq4File.toPath(), "#include <Arrays>\r\n".getBytes(US_ASCII));
+
+    final Mql4IncludeResolver resolver = new Mql4IncludeResolver(mql4Dir, Collections.emptyList());
+    assertFalse(resolver.exists(includeDir));
+
+    final Mql4Dependency dep = Mql4Dependency.from(resolver, mq4File);
+    assertEquals(Kind.INCLUDE, dep.getMissingDependencies().get(includeDir));
+  }
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4DeploymentTest
+{
+  @Test
+  public void testSync(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File test1 = write(temporaryFolder.createFile("Test1.ex4"), 1);
+    final File test2 = write(temporaryFolder.createFile("Test2.ex4"), 2);
+    final File targetDir = temporaryFolder.createDirectory("MQL4");
+    final File stateFile = new File(temporaryFolder.getRoot(), "state/target.properties");
+    final File checksumsFile = new File(temporaryFolder.getRoot(), "state/checksums.properties");
+
+    final Map<String,File> files = new TreeMap<>();
+    files.put("Experts/Test1.ex4", test1);
+    files.put("Indicators/Test2.ex4", test2);
+
+    Mql4Deployment deployment = new Mql4Deployment(targetDir, stateFile);
+    deployment.sync(files, Checksums.checksums(files, checksumsFile));
+
+    assertEquals(2, deployment.getCopied());
+    assertTrue(new File(targetDir, "Indicators/Test2.ex4").isFile());
+
+    // recompiled file with identical content is not copied
+    test1.setLastModified(test1.lastModified() + 2000);
+    write(test2, 3).setLastModified(test2.lastModified() + 2000);
+    final File deployedTest1 = new File(targetDir, "Experts/Test1.ex4");
+    final long deployedTest1Modified = deployedTest1.lastModified();
+
+    deployment = new Mql4Deployment(targetDir, stateFile);
+    deployment.sync(files, Checksums.checksums(files, checksumsFile));
+
+    assertEquals(1, deployment.getCopied());
+    assertEquals(1, deployment.getUnchanged());
+    assertEquals(deployedTest1Modified, deployedTest1.lastModified());
+    assertEquals(3, Files.readAllBytes(new File(targetDir, "Indicators/Test2.ex4").toPath())[0]);
+
+    // orphaned files are deleted, files not deployed by us are kept
+    final File foreign = write(new File(targetDir, "Experts/Foreign.ex4"), 4);
+    files.remove("Experts/Test1.ex4");
+
+    deployment = new Mql4Deployment(targetDir, stateFile);
+    deployment.sync(files, Checksums.checksums(files, checksumsFile));
+
+    assertEquals(1, deployment.getDeleted());
+    assertFalse(deployedTest1.exists());
+    assertTrue(foreign.isFile());
+  }
+
+
+  @Test
+  public void testModifiedOrphanIsKept(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File test1 = write(temporaryFolder.createFile("Test1.ex4"), 1);
+    final File targetDir = temporaryFolder.createDirectory("MQL4");
+    final File stateFile = new File(temporaryFolder.getRoot(), "target.properties");
+
+    final Map<String,File> files = new TreeMap<>();
+    files.put("Experts/Test1.ex4", test1);
+
+    new Mql4Deployment(targetDir, stateFile)
+        .sync(files, Checksums.checksums(files, new File(temporaryFolder.getRoot(), "checksums.properties")));
+
+    final File deployedTest1 = write(new File(targetDir, "Experts/Test1.ex4"), 5);
+    deployedTest1.setLastModified(deployedTest1.lastModified() + 2000);
+    files.clear();
+
+    final Mql4Deployment deployment = new Mql4Deployment(targetDir, stateFile);
+    deployment.sync(files, new TreeMap<>());
+
+    assertEquals(0, deployment.getDeleted());
+    assertTrue(deployedTest1.isFile());
+  }
+
+
+  @Test
+  public void testMissingTargetDir(TemporaryFolder temporaryFolder)
+  {
+    final Mql4Deployment deployment = new Mql4Deployment(new File(temporaryFolder.getRoot(), "missing"),
+        new File(temporaryFolder.getRoot(), "target.properties"));
+
+    assertThrows(IOException.class, () -> deployment.sync(new TreeMap<>(), new TreeMap<>()));
+  }
+
+
+  private static File write(File file, int content) throws IOException
+  {
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), new byte[] { (byte)content });
+
+    return file;
+  }
+}
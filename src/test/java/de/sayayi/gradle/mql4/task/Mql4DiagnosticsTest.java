@@ -0,0 +1,64 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+public class Mql4DiagnosticsTest
+{
+  @Test
+  public void testParse()
+  {
+    final Mql4Diagnostics diagnostics = Mql4Diagnostics.parse("Experts/Test.mq4", asList(
+        "Z:\\build\\MQL4\\Experts\\Test.mq4 : information: checking 'Test.mq4'",
+        "Z:\\build\\MQL4\\Experts\\Test.mq4(12,5) : error 256: 'x' - undeclared identifier",
+        "Z:\\build\\MQL4\\Include\\Inc1.mqh(3,10) : warning 43: possible loss of data due to type conversion",
+        "Result: 1 error(s), 1 warning(s)"));
+
+    assertTrue(diagnostics.isComplete());
+    assertFalse(diagnostics.isSuccessful());
+    assertEquals(1, diagnostics.getErrors());
+    assertEquals(1, diagnostics.getWarnings());
+    assertEquals(2, diagnostics.getDiagnostics().size());
+
+    assertEquals("Experts/Test.mq4:12:5: error 256: 'x' - undeclared identifier",
+        diagnostics.getDiagnostics().get(0).format());
+    assertEquals("Include/Inc1.mqh:3:10: warning 43: possible loss of data due to type conversion",
+        diagnostics.getDiagnostics().get(1).format());
+  }
+
+
+  @Test
+  public void testSuccess()
+  {
+    assertTrue(Mql4Diagnostics.parse("Experts/Test.mq4",
+        Collections.singletonList("Result: 0 errors, 0 warnings, 105 msec elapsed")).isSuccessful());
+
+    // incomplete log
+    assertFalse(Mql4Diagnostics.parse("Experts/Test.mq4", Collections.emptyList()).isSuccessful());
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.sayayi.gradle.mql4.task.Mql4DirectiveCache.Directive;
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4DirectiveCacheTest
+{
+  @Test
+  public void testReadDirectives(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mq4File = temporaryFolder.createFile("Test.mq4");
+    Files.write(mq4File.toPath(),
+        "#property strict\r\n#include <Inc1.mqh>\r\n  # ifdef X\r\nint x;\r\n#endif\r\n".getBytes(UTF_8));
+
+    final List<Directive> directives = Mql4DirectiveCache.readDirectives(mq4File);
+
+    assertEquals(3, directives.size());
+    assertEquals("include", directives.get(0).getName());
+    assertEquals(" <Inc1.mqh>", directives.get(0).getArgument());
+    assertEquals("ifdef", directives.get(1).getName());
+    assertEquals("endif", directives.get(2).getName());
+  }
+
+
+  @Test
+  public void testStoreAndLoad(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mq4File = temporaryFolder.createFile("Test.mq4");
+    Files.write(mq4File.toPath(), "#include \"Inc1.mqh\"\r\n".getBytes(UTF_8));
+
+    final File cacheFile = new File(temporaryFolder.getRoot(), "state/directives.bin");
+    final Mql4DirectiveCache cache = Mql4DirectiveCache.load(cacheFile);
+
+    final List<Directive> directives = cache.getDirectives(mq4File);
+    assertSame(directives, cache.getDirectives(mq4File));
+    cache.store();
+    assertTrue(cacheFile.isFile());
+
+    // unchanged file: directives are taken from the cache, as size and modification time are unchanged
+    final long lastModified = mq4File.lastModified();
+    Files.write(mq4File.toPath(), "#include \"Inc2.mqh\"\r\n".getBytes(UTF_8));
+    mq4File.setLastModified(lastModified);
+
+    assertEquals(" \"Inc1.mqh\"", Mql4DirectiveCache.load(cacheFile).getDirectives(mq4File).get(0).getArgument());
+
+    // changed file
+    mq4File.setLastModified(lastModified + 2000);
+    assertEquals(" \"Inc2.mqh\"", Mql4DirectiveCache.load(cacheFile).getDirectives(mq4File).get(0).getArgument());
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4DistributionTaskTest
+{
+  @Test
+  public void testReproducibleArchive(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File test1 = temporaryFolder.createFile("Test1.ex4");
+    final File test2 = temporaryFolder.createFile("Test2.ex4");
+    Files.write(test1.toPath(), new byte[] { 1, 2, 3 });
+    Files.write(test2.toPath(), new byte[] { 4, 5, 6 });
+
+    final Map<String,File> entries = new TreeMap<>();
+    entries.put("MQL4/Indicators/Test2.ex4", test2);
+    entries.put("MQL4/Experts/Test1.ex4", test1);
+
+    final File archive1 = new File(temporaryFolder.getRoot(), "dist1/test.zip");
+    Mql4DistributionTask.writeArchive(archive1, entries, "manifest\n");
+
+    // same content at a different time results in an identical archive
+    test1.setLastModified(test1.lastModified() - 60000);
+    final File archive2 = new File(temporaryFolder.getRoot(), "dist2/test.zip");
+    Mql4DistributionTask.writeArchive(archive2, entries, "manifest\n");
+
+    assertArrayEquals(Files.readAllBytes(archive1.toPath()), Files.readAllBytes(archive2.toPath()));
+    assertEquals(Collections.singletonList("test.zip"), listFiles(archive1.getParentFile()));
+
+    try(ZipFile zip = new ZipFile(archive1)) {
+      final List<String> names = new ArrayList<>();
+      zip.stream().forEach(e -> {
+        names.add(e.getName());
+        assertEquals(Mql4DistributionTask.ENTRY_TIME, e.getTime());
+      });
+
+      assertEquals(
+          asList("MQL4/Experts/Test1.ex4", "MQL4/Indicators/Test2.ex4", Mql4DistributionTask.MANIFEST_ENTRY),
+          names);
+    }
+
+    assertEquals("manifest\n", Mql4DistributionTask.readManifest(archive1));
+  }
+
+
+  @Test
+  public void testReadManifest(TemporaryFolder temporaryFolder) throws IOException
+  {
+    assertNull(Mql4DistributionTask.readManifest(new File(temporaryFolder.getRoot(), "missing.zip")));
+
+    final File noZip = temporaryFolder.createFile("broken.zip");
+    Files.write(noZip.toPath(), new byte[] { 1, 2, 3 });
+    assertNull(Mql4DistributionTask.readManifest(noZip));
+  }
+
+
+  private static List<String> listFiles(File dir)
+  {
+    final List<String> names = new ArrayList<>();
+    for(final File file: dir.listFiles())
+      names.add(file.getName());
+
+    return names;
+  }
+}
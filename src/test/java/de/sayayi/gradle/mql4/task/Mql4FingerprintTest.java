@@ -0,0 +1,117 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4FingerprintTest
+{
+  private static final String SOURCE =
+      "#include <Inc1.mqh>\r\n" +
+      "\r\n" +
+      "int OnInit()\r\n" +
+      "{\r\n" +
+      "  return Foo(1, 2) + +3;\r\n" +
+      "}\r\n";
+
+
+  @Test
+  public void testCosmeticChanges()
+  {
+    final String normalized = Mql4Fingerprint.normalize(SOURCE);
+
+    assertEquals("#include <Inc1.mqh>\nint OnInit()\n{\nreturn Foo(1,2)+ +3;\n}\n", normalized);
+
+    assertEquals(normalized, Mql4Fingerprint.normalize(
+        "// header comment\r\n" +
+        "#include    <Inc1.mqh>   // includes\r\n" +
+        "/**\r\n" +
+        " * Initialize.\r\n" +
+        " */\r\n" +
+        "int OnInit()\r\n" +
+        "{\r\n" +
+        "\treturn Foo( 1,2 ) + /* unary */ +3;   \r\n" +
+        "}"));
+  }
+
+
+  @Test
+  public void testRelevantChanges()
+  {
+    final String normalized = Mql4Fingerprint.normalize(SOURCE);
+
+    assertNotEquals(normalized, Mql4Fingerprint.normalize(SOURCE.replace("+ +3", "++3")));
+    assertNotEquals(normalized, Mql4Fingerprint.normalize(SOURCE.replace("\r\n{", " {")));
+    assertNotEquals(Mql4Fingerprint.normalize("Print(\"a  b\");"), Mql4Fingerprint.normalize("Print(\"a b\");"));
+    assertNotEquals(Mql4Fingerprint.normalize("Print(\"//\");"), Mql4Fingerprint.normalize("Print(\"/\");"));
+  }
+
+
+  @Test
+  public void testClosure(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mql4Dir = temporaryFolder.createDirectory("MQL4");
+    final File expertsDir = new File(mql4Dir, "Experts");
+    final File mq4File = new File(expertsDir, "Test.mq4");
+    final File mqhFile = new File(expertsDir, "Test.mqh");
+
+    expertsDir.mkdirs();
+    Files.write(mq4File.toPath(), "#include \"Test.mqh\"\r\n".getBytes(ISO_8859_1));
+    Files.write(mqhFile.toPath(), "int x;\r\n".getBytes(ISO_8859_1));
+
+    final String fingerprint = Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:1");
+
+    assertEquals(fingerprint, Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:1"));
+    assertNotEquals(fingerprint, Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:2"));
+
+    // any change to a dependency, even a cosmetic one
+    Files.write(mqhFile.toPath(), "int x; \r\n".getBytes(ISO_8859_1));
+    assertNotEquals(fingerprint, Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:1"));
+
+    // a shared checksum cache yields the same fingerprint and is updated for changed files
+    final Map<String,String> checksums = new HashMap<>();
+    final String changedFingerprint =
+        Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:1");
+
+    assertEquals(changedFingerprint,
+        Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:1", checksums));
+    assertEquals(2, checksums.size());
+
+    Files.write(mqhFile.toPath(), "int x;\r\n".getBytes(ISO_8859_1));
+    mqhFile.setLastModified(mqhFile.lastModified() + 2000);
+    assertEquals(fingerprint,
+        Mql4Fingerprint.ofClosure(Mql4Dependency.from(mql4Dir, mq4File), "metaeditor:1", checksums));
+  }
+}
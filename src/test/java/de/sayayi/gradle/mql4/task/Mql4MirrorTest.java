@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4MirrorTest
+{
+  private static final File MQL4_DIR = new File("src/test/resources/MQL4");
+
+
+  @Test
+  public void testSync(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mql4Dir = temporaryFolder.createDirectory("MQL4");
+    copy(mql4Dir, "Indicators/Test2.mq4");
+    copy(mql4Dir, "Indicators/Inc3.mqh");
+    copy(mql4Dir, "Include/Inc1.mqh");
+    final File inc2 = copy(mql4Dir, "Include/Inc2.mqh");
+
+    final File mirrorDir = new File(temporaryFolder.getRoot(), "mirror");
+    final Mql4Dependency test2 = Mql4Dependency.from(mql4Dir, new File(mql4Dir, "Indicators/Test2.mq4"));
+
+    Mql4Mirror mirror = new Mql4Mirror(mirrorDir, mql4Dir, Collections.emptyList());
+    mirror.sync(test2);
+    mirror.store();
+
+    assertEquals(4, mirror.getCopied());
+    assertTrue(new File(mirrorDir, "MQL4/Include/Inc2.mqh").isFile());
+
+    // unchanged files are not copied again
+    mirror = new Mql4Mirror(mirrorDir, mql4Dir, Collections.emptyList());
+    mirror.sync(test2);
+    assertEquals(0, mirror.getCopied());
+
+    inc2.setLastModified(inc2.lastModified() + 2000);
+    mirror = new Mql4Mirror(mirrorDir, mql4Dir, Collections.emptyList());
+    mirror.sync(test2);
+    assertEquals(1, mirror.getCopied());
+
+    // deleted files are removed from the mirror
+    Files.delete(inc2.toPath());
+    mirror = new Mql4Mirror(mirrorDir, mql4Dir, Collections.emptyList());
+    mirror.sync(test2);
+    assertFalse(new File(mirrorDir, "MQL4/Include/Inc2.mqh").exists());
+  }
+
+
+  @Test
+  public void testPublish(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mirrorDir = temporaryFolder.createDirectory("mirror");
+    final Mql4Mirror mirror = new Mql4Mirror(mirrorDir, MQL4_DIR, Collections.emptyList());
+
+    final File ex4File = new File(mirror.getMql4Dir(), "Libraries/TestLib.ex4");
+    Files.createDirectories(ex4File.getParentFile().toPath());
+    Files.write(ex4File.toPath(), new byte[] { 1, 2, 3 });
+
+    final File target = new File(temporaryFolder.getRoot(), "out/Libraries/TestLib.ex4");
+    mirror.publish(ex4File, target);
+
+    assertTrue(target.isFile());
+    assertTrue(ex4File.isFile());
+    assertEquals(1, ex4File.getParentFile().list().length);
+  }
+
+
+  private static File copy(File mql4Dir, String relativePath) throws IOException
+  {
+    final File target = new File(mql4Dir, relativePath);
+
+    Files.createDirectories(target.getParentFile().toPath());
+    Files.copy(new File(MQL4_DIR, relativePath).toPath(), target.toPath());
+
+    return target;
+  }
+}
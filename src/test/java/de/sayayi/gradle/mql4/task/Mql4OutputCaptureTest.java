@@ -0,0 +1,90 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4OutputCaptureTest
+{
+  @Test
+  public void testCapture(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File captureFile = new File(temporaryFolder.getRoot(), "output/Experts/EA.txt");
+    final Mql4OutputCapture capture =
+        new Mql4OutputCapture("Experts/EA.mq4", captureFile, Logging.getLogger(getClass()), LogLevel.INFO);
+
+    capture.getStandardOutput().write("first\r\nsecond\rthird".getBytes());
+    capture.getErrorOutput().write("fixme:ole\n\n".getBytes());
+    capture.close();
+
+    assertEquals(4, capture.getLines());
+    assertEquals(Arrays.asList("first", "second", "[stderr] fixme:ole", "third"),
+        Files.readAllLines(captureFile.toPath(), Charset.defaultCharset()));
+  }
+
+
+  @Test
+  public void testLongLine(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File captureFile = new File(temporaryFolder.getRoot(), "EA.txt");
+
+    try(Mql4OutputCapture capture =
+        new Mql4OutputCapture("EA.mq4", captureFile, Logging.getLogger(getClass()), LogLevel.DEBUG)) {
+      final byte[] line = new byte[Mql4OutputCapture.MAX_LINE_LENGTH + 10];
+      Arrays.fill(line, (byte)'x');
+
+      capture.getStandardOutput().write(line);
+    }
+
+    final List<String> lines = Files.readAllLines(captureFile.toPath(), Charset.defaultCharset());
+    assertEquals(2, lines.size());
+    assertEquals(Mql4OutputCapture.MAX_LINE_LENGTH, lines.get(0).length());
+    assertEquals(10, lines.get(1).length());
+  }
+
+
+  @Test
+  public void testNoOutput(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File captureFile = temporaryFolder.createFile("EA.txt");
+
+    new Mql4OutputCapture("EA.mq4", captureFile, Logging.getLogger(getClass()), LogLevel.INFO).close();
+
+    // a capture file of a previous compile is removed
+    assertFalse(captureFile.exists());
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.sayayi.gradle.mql4.task.Mql4ParallelismController.OperatingSystemLoad;
+import de.sayayi.gradle.mql4.task.Mql4ParallelismController.SystemLoad;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4ParallelismControllerTest
+{
+  private static final long MB = 1024L * 1024L;
+
+  private long now;
+  private double loadAverage;
+  private long availableMemory = -1;
+
+
+  @Test
+  public void testGrowWhileThroughputImproves() throws InterruptedException
+  {
+    final Mql4ParallelismController controller = createController(1, 4, 0);
+
+    // throughput grows with the limit
+    runWindow(controller, 2, 2000);
+    assertEquals(2, controller.getLimit());
+
+    runWindow(controller, 2, 1000);
+    assertEquals(3, controller.getLimit());
+
+    runWindow(controller, 3, 1000);
+    assertEquals(4, controller.getLimit());
+
+    // max reached
+    runWindow(controller, 4, 1000);
+    assertEquals(4, controller.getLimit());
+  }
+
+
+  @Test
+  public void testShrinkWhenThroughputDrops() throws InterruptedException
+  {
+    final Mql4ParallelismController controller = createController(1, 8, 0);
+
+    runWindow(controller, 2, 2000);
+    runWindow(controller, 2, 1000);
+    assertEquals(3, controller.getLimit());
+
+    // more compiles, but slower (wineserver contention)
+    runWindow(controller, 3, 3000);
+    assertEquals(2, controller.getLimit());
+  }
+
+
+  @Test
+  public void testShrinkOnOverload() throws InterruptedException
+  {
+    final Mql4ParallelismController controller = createController(1, 8, 0);
+
+    runWindow(controller, 2, 2000);
+    runWindow(controller, 2, 1000);
+    assertEquals(3, controller.getLimit());
+
+    loadAverage = 8;
+    runWindow(controller, 3, 500);
+    assertEquals(2, controller.getLimit());
+
+    availableMemory = 100 * MB;
+    loadAverage = 0;
+    runWindow(controller, 2, 500);
+    assertEquals(1, controller.getLimit());
+  }
+
+
+  @Test
+  public void testAvailableMemoryIncludesPageCache(TemporaryFolder temporaryFolder) throws IOException,
+      InterruptedException
+  {
+    // little free memory, but most of the memory is used by the page cache
+    final File meminfo = temporaryFolder.createFile("meminfo");
+    Files.write(meminfo.toPath(),
+        "MemTotal:       16777216 kB\nMemFree:          102400 kB\nMemAvailable:   12582912 kB\n".getBytes(ISO_8859_1));
+
+    final OperatingSystemLoad osLoad = new OperatingSystemLoad(meminfo);
+    assertEquals(12 * 1024 * MB, osLoad.getAvailableMemory());
+
+    availableMemory = osLoad.getAvailableMemory();
+    final Mql4ParallelismController controller = createController(1, 4, 0);
+
+    runWindow(controller, 2, 2000);
+    runWindow(controller, 2, 1000);
+    assertEquals(3, controller.getLimit());
+  }
+
+
+  @Test
+  public void testMemoryBudget()
+  {
+    assertEquals(3, createController(1, 8, 1000 * MB).getMaxCompiles());
+    assertEquals(2, createController(2, 8, 100 * MB).getMaxCompiles());
+    assertEquals(4, Mql4ParallelismController.fixed(4).getMaxCompiles());
+  }
+
+
+  private Mql4ParallelismController createController(int min, int max, long memoryBudget)
+  {
+    return new Mql4ParallelismController(min, max, memoryBudget, 256 * MB, new SystemLoad() {
+      @Override
+      public double getLoadAverage() {
+        return loadAverage;
+      }
+
+      @Override
+      public long getAvailableMemory() {
+        return availableMemory;
+      }
+
+      @Override
+      public int getProcessors() {
+        return 4;
+      }
+    }, () -> now);
+  }
+
+
+  private void runWindow(Mql4ParallelismController controller, int files, long duration)
+      throws InterruptedException
+  {
+    for(int n = 0; n < files; n++)
+    {
+      controller.acquire();
+      now += duration / files;
+      controller.release();
+    }
+  }
+}
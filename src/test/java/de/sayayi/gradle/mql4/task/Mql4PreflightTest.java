@@ -0,0 +1,119 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.sayayi.gradle.mql4.task.Mql4Preflight.Severity;
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4PreflightTest
+{
+  private static final File MQL4_DIR = new File("src/test/resources/MQL4");
+  private static final Logger LOGGER = Logging.getLogger(Mql4PreflightTest.class);
+
+
+  @Test
+  public void testMissingInclude()
+  {
+    final Map<String,Mql4Dependency> mql4Files = new LinkedHashMap<>();
+    mql4Files.put("Indicators/Test1.mq4", Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, "Indicators/Test1.mq4")));
+    mql4Files.put("Indicators/Test3.mq4", Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, "Indicators/Test3.mq4")));
+
+    final Mql4Preflight preflight = new Mql4Preflight(MQL4_DIR, mql4Files);
+
+    assertEquals(singletonList("missing include Indicators/IncUnknown.mqh (required by Indicators/Test3.mq4)"),
+        preflight.getProblems());
+    assertTrue(preflight.getIncludeCycles().isEmpty());
+
+    assertThrows(GradleException.class, () -> preflight.report(LOGGER, Severity.ERROR, Severity.ERROR));
+    preflight.report(LOGGER, Severity.WARN, Severity.ERROR);
+    preflight.report(LOGGER, Severity.OFF, Severity.ERROR);
+  }
+
+
+  @Test
+  public void testIncludeCycle(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File mql4Dir = temporaryFolder.createDirectory("MQL4");
+    final File include = new File(mql4Dir, "Include");
+    final File experts = new File(mql4Dir, "Experts");
+
+    Files.createDirectories(include.toPath());
+    Files.createDirectories(experts.toPath());
+
+    write(new File(include, "A.mqh"), "#include <B.mqh>\r\n");
+    write(new File(include, "B.mqh"), "#include <A.mqh>\r\n");
+    write(new File(experts, "EA.mq4"), "#include <A.mqh>\r\n");
+
+    final Mql4Preflight preflight = new Mql4Preflight(mql4Dir,
+        singletonMap("Experts/EA.mq4", Mql4Dependency.from(mql4Dir, new File(experts, "EA.mq4"))));
+
+    assertTrue(preflight.getProblems().isEmpty());
+    assertEquals(singletonList("include cycle Include/A.mqh -> Include/B.mqh -> Include/A.mqh"),
+        preflight.getIncludeCycles());
+
+    preflight.report(LOGGER, Severity.ERROR, Severity.WARN);
+    assertThrows(GradleException.class, () -> preflight.report(LOGGER, Severity.ERROR, Severity.ERROR));
+  }
+
+
+  @Test
+  public void testSeverity()
+  {
+    assertEquals(Severity.ERROR, Severity.parse("error"));
+    assertEquals(Severity.WARN, Severity.parse(" Warn "));
+    assertEquals(Severity.OFF, Severity.parse("OFF"));
+    assertThrows(InvalidUserDataException.class, () -> Severity.parse("fatal"));
+    assertThrows(InvalidUserDataException.class, () -> Severity.parse(null));
+  }
+
+
+  private static Map<String,Mql4Dependency> singletonMap(String key, Mql4Dependency dependency)
+  {
+    final Map<String,Mql4Dependency> map = new LinkedHashMap<>();
+    map.put(key, dependency);
+    return map;
+  }
+
+
+  private static void write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(ISO_8859_1));
+  }
+}
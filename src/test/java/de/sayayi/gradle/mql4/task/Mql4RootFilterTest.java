@@ -0,0 +1,99 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+public class Mql4RootFilterTest
+{
+  private static final File MQL4_DIR = new File("src/test/resources/MQL4");
+
+  private static final Map<String,Mql4Dependency> MQL4_FILES = new LinkedHashMap<>();
+
+
+  @BeforeAll
+  public static void selectFiles()
+  {
+    for(final String file: asList("Indicators/Test1.mq4", "Indicators/Test2.mq4", "Indicators/Test3.mq4",
+                                  "Samples/Test5.mq4"))
+      MQL4_FILES.put(file, Mql4Dependency.from(MQL4_DIR, new File(MQL4_DIR, file)));
+  }
+
+
+  @Test
+  public void testEmpty()
+  {
+    final Mql4RootFilter filter = new Mql4RootFilter(MQL4_DIR, emptyList(), emptyList(), null);
+
+    assertTrue(filter.isEmpty());
+    assertEquals(MQL4_FILES.keySet(), filter.apply(MQL4_FILES).keySet());
+  }
+
+
+  @Test
+  public void testFiles()
+  {
+    assertEquals("[Indicators/Test2.mq4]", new Mql4RootFilter(MQL4_DIR, singletonList("Indicators/Test2.mq4"),
+        emptyList(), null).apply(MQL4_FILES).keySet().toString());
+
+    assertEquals("[Indicators/Test1.mq4, Indicators/Test2.mq4, Indicators/Test3.mq4]", new Mql4RootFilter(MQL4_DIR,
+        singletonList("Indicators/*.mq4"), emptyList(), null).apply(MQL4_FILES).keySet().toString());
+
+    // expanded to files including Inc1.mqh
+    assertEquals("[Indicators/Test1.mq4, Indicators/Test2.mq4]", new Mql4RootFilter(MQL4_DIR,
+        singletonList("Include/Inc1.mqh"), emptyList(), null).apply(MQL4_FILES).keySet().toString());
+  }
+
+
+  @Test
+  public void testDirs()
+  {
+    assertEquals("[Samples/Test5.mq4]", new Mql4RootFilter(MQL4_DIR, emptyList(), singletonList("Samples"), null)
+        .apply(MQL4_FILES).keySet().toString());
+
+    // Test5 imports TestLib.ex4
+    assertEquals("[Samples/Test5.mq4]", new Mql4RootFilter(MQL4_DIR, emptyList(), singletonList("Libraries"), null)
+        .apply(MQL4_FILES).keySet().toString());
+  }
+
+
+  @Test
+  public void testChangedFiles()
+  {
+    final Mql4RootFilter filter = new Mql4RootFilter(MQL4_DIR, emptyList(), singletonList("Indicators"),
+        singleton(new File(MQL4_DIR, "Include/Inc2.mqh").toPath().toAbsolutePath().normalize()));
+
+    // Inc1.mqh includes Inc2.mqh
+    assertEquals("[Indicators/Test1.mq4, Indicators/Test2.mq4, Indicators/Test3.mq4]",
+        filter.apply(MQL4_FILES).keySet().toString());
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class Mql4StagingAreaTest
+{
+  private static final File MQL4_DIR = new File("src/test/resources/MQL4");
+  private static final File SHARED_INCLUDE_DIR = new File("src/test/resources/SharedInclude");
+
+
+  @Test
+  public void testStage(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File stagingDir = new File(temporaryFolder.createDirectory("staging"), "MQL4");
+    final Mql4Dependency dep6 = Mql4Dependency.from(
+        new Mql4IncludeResolver(MQL4_DIR, Collections.singletonList(SHARED_INCLUDE_DIR)),
+        new File(MQL4_DIR, "Samples/Test6.mq4"));
+
+    Mql4StagingArea.stage(stagingDir, MQL4_DIR, Collections.singletonList(SHARED_INCLUDE_DIR), dep6);
+
+    final String staged;
+    try(Stream<Path> files = Files.walk(stagingDir.toPath())) {
+      staged = files
+          .filter(Files::isRegularFile)
+          .map(f -> stagingDir.toPath().relativize(f).toString().replace('\\', '/'))
+          .sorted()
+          .collect(Collectors.joining(","));
+    }
+
+    assertEquals("Include/Inc1.mqh,Include/Inc2.mqh,Include/Shared.mqh,Samples/Test6.mq4", staged);
+
+    Mql4StagingArea.delete(stagingDir);
+    assertFalse(stagingDir.exists());
+  }
+
+
+  @Test
+  public void testPublish(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File compiled = temporaryFolder.createFile("Test.ex4");
+    Files.write(compiled.toPath(), "ex4".getBytes(UTF_8));
+
+    final File target = new File(temporaryFolder.getRoot(), "out/Experts/Test.ex4");
+    Mql4StagingArea.publish(compiled, target);
+
+    assertFalse(compiled.exists());
+    assertTrue(target.isFile());
+    assertEquals("ex4", new String(Files.readAllBytes(target.toPath()), UTF_8));
+    assertEquals(1, target.getParentFile().list().length);
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class StateFileTest
+{
+  @Test
+  public void testAppend(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File stateFile = new File(temporaryFolder.getRoot(), "state/checkpoints.properties");
+
+    final Map<String,String> state = new TreeMap<>();
+    state.put("Experts/A.mq4", "1");
+    state.put("Experts/B.mq4", "2");
+    StateFile.store(stateFile, state);
+
+    StateFile.append(stateFile, "Experts/A.mq4", "3");
+    StateFile.append(stateFile, "Experts/C.mq4", "4");
+
+    // partially written line of a killed build
+    Files.write(stateFile.toPath(), "Experts/D".getBytes(UTF_8), StandardOpenOption.APPEND);
+
+    assertEquals("{Experts/A.mq4=3, Experts/B.mq4=2, Experts/C.mq4=4}", StateFile.load(stateFile).toString());
+  }
+}
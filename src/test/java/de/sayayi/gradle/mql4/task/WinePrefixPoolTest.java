@@ -0,0 +1,83 @@
+/**
+ * Copyright 2019 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.gradle.mql4.task;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.github.glytching.junit.extension.folder.TemporaryFolder;
+import io.github.glytching.junit.extension.folder.TemporaryFolderExtension;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@ExtendWith(TemporaryFolderExtension.class)
+public class WinePrefixPoolTest
+{
+  @Test
+  public void testClonedPrefixIsIndependent(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File templateDir = temporaryFolder.createDirectory("template");
+    final Path winIni = templateDir.toPath().resolve("drive_c/windows/win.ini");
+    Files.createDirectories(winIni.getParent());
+    Files.write(winIni, "template".getBytes(US_ASCII));
+
+    final File poolDir = new File(temporaryFolder.getRoot(), "pool");
+    final Path prefix = poolDir.toPath().resolve("slot-1");
+    new WinePrefixPool(templateDir, poolDir).clonePrefix(templateDir.toPath(), prefix);
+
+    // wine writes files in place; the template must not see the change
+    final Path clonedWinIni = prefix.resolve("drive_c/windows/win.ini");
+    Files.write(clonedWinIni, "slot".getBytes(US_ASCII));
+
+    assertEquals("template", new String(Files.readAllBytes(winIni), US_ASCII));
+    assertEquals("slot", new String(Files.readAllBytes(clonedWinIni), US_ASCII));
+  }
+
+
+  @Test
+  public void testImmutableFilesAreLinked(TemporaryFolder temporaryFolder) throws IOException
+  {
+    final File templateDir = temporaryFolder.createDirectory("template");
+    final Path template = templateDir.toPath();
+    final Path dll = template.resolve("drive_c/windows/system32/kernel32.dll");
+    final Path winIni = template.resolve("drive_c/windows/win.ini");
+    final Path systemReg = template.resolve("system.reg");
+
+    Files.createDirectories(dll.getParent());
+    for(final Path file: new Path[] { dll, winIni, systemReg })
+      Files.write(file, file.getFileName().toString().getBytes(US_ASCII));
+
+    final Path prefix = new File(temporaryFolder.getRoot(), "pool/slot-1").toPath();
+    new WinePrefixPool(templateDir, prefix.getParent().toFile()).clonePrefix(template, prefix);
+
+    assertTrue(Files.isSameFile(dll, prefix.resolve("drive_c/windows/system32/kernel32.dll")));
+    assertFalse(Files.isSameFile(winIni, prefix.resolve("drive_c/windows/win.ini")));
+    assertFalse(Files.isSameFile(systemReg, prefix.resolve("system.reg")));
+    assertEquals("system.reg", new String(Files.readAllBytes(prefix.resolve("system.reg")), US_ASCII));
+  }
+}